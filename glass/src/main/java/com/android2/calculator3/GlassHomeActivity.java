@@ -12,22 +12,22 @@ import android.view.View;
 import com.google.android.glass.media.Sounds;
 import com.google.android.glass.touchpad.Gesture;
 import com.google.android.glass.touchpad.GestureDetector;
-import com.xlythe.math.Solver;
-import com.xlythe.math.Voice;
-
-import org.javia.arity.SyntaxException;
 
 import java.util.List;
 
 public class GlassHomeActivity extends Activity {
     private static final int SPEECH_REQUEST = 1000;
     private GestureDetector mGestureDetector;
+    private GlassSolver.Request mRequest;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.glass_home);
 
+        // Warms up the solver while the user is talking
+        GlassSolver.getInstance();
+
         if (savedInstanceState == null) displaySpeechRecognizer();
 
         mGestureDetector = new GestureDetector(this);
@@ -57,7 +57,17 @@ public class GlassHomeActivity extends Activity {
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
         setIntent(intent);
-        onCreate(null);
+        // We're already set up, so just ask again instead of starting over
+        displaySpeechRecognizer();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mRequest != null) {
+            mRequest.cancel();
+            mRequest = null;
+        }
+        super.onDestroy();
     }
 
     private void displaySpeechRecognizer() {
@@ -71,29 +81,26 @@ public class GlassHomeActivity extends Activity {
         if (requestCode == SPEECH_REQUEST) {
             if (resultCode == RESULT_OK) {
                 List<String> results = data.getStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS);
-                String spokenText = Voice.parseSpokenText(results.get(0));
-
-                if (spokenText.isEmpty()) {
-                    detectionFailed();
-                    return;
+                if (mRequest != null) {
+                    mRequest.cancel();
                 }
-
-                Log.v("Calculator", "Glass user queried \"" + spokenText + "\"");
-
-                Solver solver = new Solver();
-                solver.setLineLength(10);
-
-                String result;
-                try {
-                    result = solver.solve(spokenText);
-                } catch (SyntaxException e) {
-                    result = getString(R.string.error);
-                }
-                Intent intent = new Intent(this, GlassResultActivity.class);
-                intent.putExtra(GlassResultActivity.EXTRA_QUERY, spokenText);
-                intent.putExtra(GlassResultActivity.EXTRA_RESULT, result);
-                startActivity(intent);
-                finish();
+                mRequest = GlassSolver.getInstance().solve(results, new GlassSolver.Callback() {
+                    @Override
+                    public void onResult(String query, String result) {
+                        showResult(query, result);
+                    }
+
+                    @Override
+                    public void onError(String query) {
+                        showResult(query, getString(R.string.error));
+                    }
+
+                    @Override
+                    public void onNotRecognized() {
+                        mRequest = null;
+                        detectionFailed();
+                    }
+                });
             } else if (resultCode == RESULT_CANCELED) {
                 finish();
             } else {
@@ -103,6 +110,17 @@ public class GlassHomeActivity extends Activity {
         super.onActivityResult(requestCode, resultCode, data);
     }
 
+    private void showResult(String query, String result) {
+        mRequest = null;
+        Log.v("Calculator", "Glass user queried \"" + query + "\"");
+
+        Intent intent = new Intent(this, GlassResultActivity.class);
+        intent.putExtra(GlassResultActivity.EXTRA_QUERY, query);
+        intent.putExtra(GlassResultActivity.EXTRA_RESULT, result);
+        startActivity(intent);
+        finish();
+    }
+
     private void detectionFailed() {
         findViewById(R.id.layout).setVisibility(View.VISIBLE);
     }
@@ -0,0 +1,258 @@
+package com.android2.calculator3;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.xlythe.math.Solver;
+import com.xlythe.math.Voice;
+
+import org.javia.arity.SyntaxException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solves spoken queries for the whole process. The solvers are created and warmed up once,
+ * ahead of time, instead of per query on the main thread, and answers are remembered by
+ * query so asking the same thing again is instant.
+ *
+ * The speech recognizer hands back several guesses at what was said. They're all solved at
+ * once, and the best ranked guess that parses is the answer.
+ */
+public class GlassSolver {
+    // Glass has two cores
+    private static final int POOL_SIZE = 2;
+    private static final int LINE_LENGTH = 10;
+    private static final int CACHE_SIZE = 32;
+
+    private static GlassSolver sInstance;
+
+    public static synchronized GlassSolver getInstance() {
+        if (sInstance == null) {
+            sInstance = new GlassSolver();
+        }
+        return sInstance;
+    }
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(POOL_SIZE);
+    // Solvers aren't thread safe, so each running task borrows one of its own
+    private final Queue<Solver> mSolvers = new ConcurrentLinkedQueue<>();
+    private final LruCache<String, String> mCache = new LruCache<>(CACHE_SIZE);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private GlassSolver() {
+        // Loading the math library takes a while, so get it out of the way while the user
+        // is still talking
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < POOL_SIZE; i++) {
+                    Solver solver = createSolver();
+                    try {
+                        solver.solve("1+1");
+                    } catch (SyntaxException e) {
+                        // Can't happen, and it's only a warm up anyway
+                    }
+                    recycle(solver);
+                }
+            }
+        });
+    }
+
+    /**
+     * Puts the solver back, unless the pool is already full. Tasks that ran before the warm up
+     * finished made their own.
+     */
+    private synchronized void recycle(Solver solver) {
+        if (mSolvers.size() < POOL_SIZE) {
+            mSolvers.add(solver);
+        }
+    }
+
+    private static Solver createSolver() {
+        Solver solver = new Solver();
+        solver.setLineLength(LINE_LENGTH);
+        return solver;
+    }
+
+    /**
+     * Solves the recognizer's results, best guess first. Must be called on the main thread,
+     * and the callback is called there too (right away, if the answer was cached).
+     */
+    public Request solve(List<String> spokenResults, Callback callback) {
+        // Turn each guess into an equation, dropping the ones that aren't and the repeats
+        Map<String, String> queries = new LinkedHashMap<>();
+        for (String spokenResult : spokenResults) {
+            String query = Voice.parseSpokenText(spokenResult);
+            String key = normalize(query);
+            if (!key.isEmpty() && !queries.containsKey(key)) {
+                queries.put(key, query);
+            }
+        }
+
+        Request request = new Request(new ArrayList<>(queries.keySet()),
+                new ArrayList<>(queries.values()), callback);
+        request.start();
+        return request;
+    }
+
+    private static String normalize(String query) {
+        return query.replaceAll("\\s+", "").toLowerCase(Locale.US);
+    }
+
+    /**
+     * One query, with all its guesses. Only ever touched on the main thread.
+     */
+    public class Request {
+        private final List<String> mKeys;
+        private final List<String> mQueries;
+        private final Callback mCallback;
+        private final String[] mResults;
+        private final boolean[] mDone;
+        private final List<Future<?>> mFutures = new ArrayList<>();
+        private boolean mFinished;
+
+        private Request(List<String> keys, List<String> queries, Callback callback) {
+            mKeys = keys;
+            mQueries = queries;
+            mCallback = callback;
+            mResults = new String[keys.size()];
+            mDone = new boolean[keys.size()];
+        }
+
+        private void start() {
+            for (int i = 0; i < mKeys.size(); i++) {
+                String cached = mCache.get(mKeys.get(i));
+                if (cached != null) {
+                    mResults[i] = cached;
+                    mDone[i] = true;
+                }
+            }
+            if (check()) {
+                return;
+            }
+
+            for (int i = 0; i < mKeys.size(); i++) {
+                if (!mDone[i]) {
+                    mFutures.add(mExecutor.submit(new Task(this, i, mQueries.get(i))));
+                }
+            }
+        }
+
+        private void onSolved(int index, String result) {
+            if (mFinished) {
+                return;
+            }
+            mDone[index] = true;
+            mResults[index] = result;
+            if (result != null) {
+                mCache.put(mKeys.get(index), result);
+            }
+            check();
+        }
+
+        /**
+         * Finishes as soon as the answer is known: the first guess that parsed, once every
+         * guess ranked above it has failed.
+         */
+        private boolean check() {
+            for (int i = 0; i < mKeys.size(); i++) {
+                if (!mDone[i]) {
+                    return false;
+                }
+                if (mResults[i] != null) {
+                    finish();
+                    mCallback.onResult(mQueries.get(i), mResults[i]);
+                    return true;
+                }
+            }
+
+            finish();
+            if (mQueries.isEmpty()) {
+                mCallback.onNotRecognized();
+            } else {
+                mCallback.onError(mQueries.get(0));
+            }
+            return true;
+        }
+
+        private void finish() {
+            mFinished = true;
+            // Guesses that haven't started yet aren't needed anymore
+            for (Future<?> future : mFutures) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * Stops the callback from being called.
+         */
+        public void cancel() {
+            finish();
+        }
+    }
+
+    private class Task implements Runnable {
+        private final Request mRequest;
+        private final int mIndex;
+        private final String mQuery;
+
+        Task(Request request, int index, String query) {
+            mRequest = request;
+            mIndex = index;
+            mQuery = query;
+        }
+
+        @Override
+        public void run() {
+            String result = null;
+            try {
+                Solver solver = mSolvers.poll();
+                if (solver == null) {
+                    // Still warming up
+                    solver = createSolver();
+                }
+                try {
+                    result = solver.solve(mQuery);
+                } catch (SyntaxException e) {
+                    // Not an equation after all
+                } finally {
+                    recycle(solver);
+                }
+            } finally {
+                // Whatever went wrong, the request has to hear back about this guess, or it
+                // would wait on it forever
+                final String answer = result;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRequest.onSolved(mIndex, answer);
+                    }
+                });
+            }
+        }
+    }
+
+    public interface Callback {
+        void onResult(String query, String result);
+
+        /**
+         * None of the guesses could be solved. The query is the best guess.
+         */
+        void onError(String query);
+
+        /**
+         * None of the guesses were an equation.
+         */
+        void onNotRecognized();
+    }
+}
@@ -17,6 +17,8 @@ import com.xlythe.math.Solver;
 import org.javia.arity.SyntaxException;
 
 import java.text.DecimalFormatSymbols;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CalculatorWidget extends AppWidgetProvider {
     public final static String PREFERENCE_WIDGET_PREAMBLE = "com.xlythe.calculator.holo.CALC_WIDGET_VALUE_";
@@ -40,6 +42,14 @@ public class CalculatorWidget extends AppWidgetProvider {
     public static final String DEL = "com.xlythe.calculator.holo.delete";
     public static final String SHOW_CLEAR = "com.xlythe.calculator.holo.show_clear";
 
+    // Taps are handled in order, one at a time, off the main thread
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    // Only touched from sExecutor, so they're safe to share between taps
+    private static CalculatorExpressionTokenizer sTokenizer;
+    private static Solver sSolver;
+    private static Logic sLogic;
+
     private boolean mClearText = false;
 
     private static String getDecimal() {
@@ -55,11 +65,36 @@ public class CalculatorWidget extends AppWidgetProvider {
         return PreferenceManager.getDefaultSharedPreferences(context).getString(PREFERENCE_WIDGET_PREAMBLE + appWidgetId, "");
     }
 
+    private static void initEngine(Context context) {
+        if (sSolver == null) {
+            sTokenizer = new CalculatorExpressionTokenizer(context.getApplicationContext());
+            sSolver = new Solver();
+            sSolver.setLineLength(7);
+            sLogic = new Logic(context.getApplicationContext());
+        }
+    }
+
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(final Context context, final Intent intent) {
+        // Solving and saving history can be slow, so the receiver stays alive while the
+        // work is done in the background
+        final PendingResult result = goAsync();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    initEngine(context);
+                    handleIntent(context, intent);
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+
+    private void handleIntent(Context context, Intent intent) {
         int appWidgetId = intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, 0);
         String value = getValue(context, appWidgetId);
-        CalculatorExpressionTokenizer tokenizer = new CalculatorExpressionTokenizer(context);
         if (value.equals(context.getResources().getString(R.string.error))) value = "";
         mClearText = intent.getBooleanExtra(SHOW_CLEAR, false);
 
@@ -147,11 +182,8 @@ public class CalculatorWidget extends AppWidgetProvider {
             final String input = value;
             if (input.isEmpty()) return;
 
-            final Solver logic = new Solver();
-            logic.setLineLength(7);
-
             try {
-                value = tokenizer.getLocalizedExpression(logic.solve(tokenizer.getNormalizedExpression(input)));
+                value = sTokenizer.getLocalizedExpression(sSolver.solve(sTokenizer.getNormalizedExpression(input)));
             } catch (SyntaxException e) {
                 value = context.getResources().getString(R.string.error);
             }
@@ -193,8 +225,7 @@ public class CalculatorWidget extends AppWidgetProvider {
         String value = getValue(context, appWidgetId);
 
         if (CalculatorSettings.digitGrouping(context)) {
-            final Logic logic = new Logic(context);
-            BaseModule bm = logic.getBaseModule();
+            BaseModule bm = sLogic.getBaseModule();
             value = bm.groupSentence(value, value.length());
             value = value.replace(String.valueOf(BaseModule.SELECTION_HANDLE), "");
         }
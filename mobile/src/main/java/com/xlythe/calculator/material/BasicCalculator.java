@@ -23,8 +23,11 @@ import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.app.Activity;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 import android.text.Editable;
@@ -51,7 +54,6 @@ import com.xlythe.math.Constants;
 import com.xlythe.math.EquationFormatter;
 import com.xlythe.math.History;
 import com.xlythe.math.HistoryEntry;
-import com.xlythe.math.Persist;
 import com.xlythe.math.Solver;
 import com.xlythe.view.floating.AnimationFinishedListener;
 
@@ -59,6 +61,8 @@ import io.codetail.animation.SupportAnimator;
 import io.codetail.animation.ViewAnimationUtils;
 import io.codetail.widget.RevealView;
 
+import java.util.List;
+
 /**
  * A very basic calculator. Maps button clicks to the display, and solves on each key press.
  */
@@ -123,16 +127,58 @@ public abstract class BasicCalculator extends Activity
         }
     };
     private HistoryAdapter mHistoryAdapter;
-    private Persist mPersist;
+    private HistoryRepository mRepository;
+    private HistoryLoader mHistoryLoader;
     private ViewGroup mDisplayForeground;
+    private final Handler mHandler = new Handler();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // Startup is split into what's needed to draw the keypad and display, and everything
+        // else, which waits for runAfterFirstFrame() or its first use. The sections show up
+        // in systrace.
+        TraceCompat.beginSection("Calculator.setContentView");
         setContentView(R.layout.activity_calculator);
+        TraceCompat.endSection();
+
         savedInstanceState = savedInstanceState == null ? Bundle.EMPTY : savedInstanceState;
+        TraceCompat.beginSection("Calculator.initialize");
         initialize(savedInstanceState);
-        mEvaluator.evaluate(mFormulaEditText.getCleanText(), this);
+        TraceCompat.endSection();
+
+        // The restored formula's answer isn't needed to draw the first frame
+        runAfterFirstFrame(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection("Calculator.evaluateRestored");
+                mEvaluator.evaluate(mFormulaEditText.getCleanText(), BasicCalculator.this);
+                TraceCompat.endSection();
+            }
+        });
+    }
+
+    /**
+     * Runs the task once the first frame has been drawn, for setup that doesn't need to be
+     * ready before the user sees the calculator.
+     */
+    protected void runAfterFirstFrame(final Runnable task) {
+        // Runnables posted to a view run during the first traversal, so post again from there
+        // to land after the frame
+        getWindow().getDecorView().post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            task.run();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     protected void initialize(Bundle savedInstanceState) {
@@ -184,11 +230,9 @@ public abstract class BasicCalculator extends Activity
     protected void onResume() {
         super.onResume();
 
-        // Load up to date history
-        mPersist = new Persist(this);
-        mPersist.load();
-        mHistory = mPersist.getHistory();
-        incrementGroupId();
+        // Drop any stale history. It'll be replaced once the load below completes.
+        mRepository = null;
+        mHistory = null;
 
         // When history is open, the display is saved as a Display Entry. Cache it if it exists.
         HistoryEntry displayEntry = null;
@@ -196,8 +240,9 @@ public abstract class BasicCalculator extends Activity
             displayEntry = mHistoryAdapter.getDisplayEntry();
         }
 
-        // Create a new History Adapter (with the up-to-date history)
-        mHistoryAdapter = new HistoryAdapter(this, mEvaluator.getSolver(), mHistory);
+        // Create a new History Adapter. It starts out empty, and is filled in once the
+        // up-to-date history has been loaded in the background.
+        mHistoryAdapter = new HistoryAdapter(this, mEvaluator.getSolver());
         mHistoryAdapter.setOnItemClickListener(new HistoryAdapter.OnItemClickListener() {
             @Override
             public void onItemClick(final HistoryEntry entry) {
@@ -225,13 +270,6 @@ public abstract class BasicCalculator extends Activity
             mHistoryAdapter.setDisplayEntry(displayEntry.getFormula(), displayEntry.getResult());
         }
 
-        // Observe! Set! Typical adapter stuff.
-        mHistory.setObserver(new History.Observer() {
-            @Override
-            public void notifyDataSetChanged() {
-                mHistoryAdapter.notifyDataSetChanged();
-            }
-        });
         mDisplayView.setAdapter(mHistoryAdapter);
         mDisplayView.attachToRecyclerView(new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(
                 ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT, ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
@@ -242,28 +280,63 @@ public abstract class BasicCalculator extends Activity
 
             @Override
             public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
-                if (viewHolder.getAdapterPosition() < mHistory.getEntries().size()) {
+                if (mHistory != null && viewHolder.getAdapterPosition() < mHistory.getEntries().size()) {
                     HistoryEntry item = mHistory.getEntries().get(viewHolder.getAdapterPosition());
-                    mHistory.remove(item);
-                    mHistoryAdapter.notifyItemRemoved(viewHolder.getAdapterPosition());
+                    mRepository.remove(item);
                 } else {
                     mFormulaEditText.setText(null);
                 }
-                if (mHistory.getEntries().isEmpty()) {
+                if (mHistory == null || mHistory.getEntries().isEmpty()) {
                     mDisplayView.collapse();
                 }
             }
         }));
-        mDisplayView.scrollToMostRecent();
+
+        // Load up to date history
+        mHistoryLoader = new HistoryLoader(this, new HistoryLoader.Callback() {
+            @Override
+            public void onHistoryLoaded(HistoryRepository repository) {
+                mHistoryLoader = null;
+                mRepository = repository;
+                mHistory = mRepository.getHistory();
+                incrementGroupId();
+
+                // Observe! Set! Typical adapter stuff. The widget and floating calculator
+                // write to the same history, so their entries show up here too.
+                mRepository.addObserver(mHistoryObserver);
+                mHistoryAdapter.setHistory(mHistory);
+                mDisplayView.scrollToMostRecent();
+            }
+        });
+        mHistoryLoader.execute();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
+        if (mHistoryLoader != null) {
+            // The history hasn't finished loading, but an answer may already be on screen.
+            // The repository loads on demand, so hand it over off the main thread.
+            mHistoryLoader.cancel(false);
+            mHistoryLoader = null;
+            saveHistoryInBackground(cleanExpression(mFormulaEditText.getCleanText()),
+                    TextUtil.getCleanText(mResultEditText, mEvaluator.getSolver()));
+            return;
+        }
+        mRepository.removeObserver(mHistoryObserver);
         saveHistory(mFormulaEditText.getCleanText(), TextUtil.getCleanText(mResultEditText, mEvaluator.getSolver()), true);
-        mPersist.save();
+        mRepository.flush();
     }
 
+    private final History.Observer mHistoryObserver = new History.Observer() {
+        @Override
+        public void notifyDataSetChanged() {
+            if (mHistoryAdapter != null) {
+                mHistoryAdapter.notifyHistoryChanged();
+            }
+        }
+    };
+
     protected boolean saveHistory(String expr, String result, boolean ensureResult) {
         if (mHistory == null) {
             return false;
@@ -275,12 +348,30 @@ public abstract class BasicCalculator extends Activity
                         && !TextUtils.isEmpty(result)
                         && !Solver.equal(expr, result)
                         && (mHistory.current() == null || !mHistory.current().getFormula().equals(expr)))) {
-            mHistory.enter(expr, result);
+            mRepository.enter(expr, result);
             return true;
         }
         return false;
     }
 
+    private void saveHistoryInBackground(final String expr, final String result) {
+        if (TextUtils.isEmpty(expr) || TextUtils.isEmpty(result) || Solver.equal(expr, result)) {
+            return;
+        }
+
+        final HistoryRepository repository = HistoryRepository.getInstance(this);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<HistoryEntry> entries = repository.getEntries();
+                if (entries.isEmpty() || !entries.get(entries.size() - 1).getFormula().equals(expr)) {
+                    repository.enter(expr, result);
+                    repository.flush();
+                }
+            }
+        });
+    }
+
     protected String cleanExpression(String expr) {
         expr = EquationFormatter.appendParenthesis(expr);
         expr = Solver.clean(expr);
@@ -382,6 +473,8 @@ public abstract class BasicCalculator extends Activity
             case R.id.fun_inverse:
             case R.id.fun_trace:
             case R.id.fun_norm:
+            case R.id.fun_solve:
+            case R.id.fun_least_squares:
             case R.id.fun_polar:
                 // Add left parenthesis after functions.
                 insert(((Button) view).getText() + "(");
@@ -462,7 +555,9 @@ public abstract class BasicCalculator extends Activity
     }
 
     protected void incrementGroupId() {
-        mHistory.incrementGroupId();
+        if (mRepository != null) {
+            mRepository.incrementGroupId();
+        }
     }
 
     protected void invalidateEqualsButton() {
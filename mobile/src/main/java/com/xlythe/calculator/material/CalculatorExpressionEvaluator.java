@@ -15,17 +15,44 @@
 */
 package com.xlythe.calculator.material;
 
+import com.xlythe.calculator.material.matrix.MatrixEngine;
 import com.xlythe.math.Base;
+import com.xlythe.math.Constants;
 import com.xlythe.math.Solver;
 
 import org.javia.arity.SyntaxException;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
+
 public class CalculatorExpressionEvaluator {
+    // How many significant digits to show when the Solver's doubles aren't precise enough
+    private static final int PRECISE_DIGITS = 20;
+    // How many characters the Solver fits its answers into. Fractions that don't terminate,
+    // like 1/3, are fitted to the same length so they look the same whichever tier solved them.
+    private static final int LINE_LENGTH = 12;
+    // Enough to fit a fraction to the line length
+    private static final int EXACT_DIGITS = 20;
+    // How long we're willing to block on BigDecimal math before settling for the Solver's answer
+    private static final long PRECISE_TIME_BUDGET = 100;
+
     private final Solver mSolver;
     private final CalculatorExpressionTokenizer mTokenizer;
+    private final PreciseEvaluator mPreciseEvaluator = new PreciseEvaluator(PRECISE_TIME_BUDGET);
+    private final IntegerEvaluator mIntegerEvaluator = new IntegerEvaluator();
+    private final MatrixEngine mMatrixEngine = new MatrixEngine();
+
+    // The current radix. The Solver only knows binary, decimal and hex, so anything else is
+    // left to the integer engine.
+    private int mRadix = 10;
+
+    // The last programmer mode result, so switching bases can re-render it instead of solving again
+    private String mLastIntegerResult;
+    private long mLastIntegerValue;
 
     public CalculatorExpressionEvaluator(CalculatorExpressionTokenizer tokenizer) {
         mSolver = new Solver();
+        mSolver.setLineLength(LINE_LENGTH);
         mTokenizer = tokenizer;
     }
 
@@ -34,6 +61,8 @@ public class CalculatorExpressionEvaluator {
     }
 
     public void evaluate(String expr, EvaluateCallback callback) {
+        // Whatever matrix math was still running is for an expression that's gone now
+        mMatrixEngine.cancel();
         expr = mTokenizer.getNormalizedExpression(expr);
 
         try {
@@ -45,29 +74,225 @@ public class CalculatorExpressionEvaluator {
             // expr is not a simple number
         }
 
+        // Programmer mode math stays in a long, and plain arithmetic is answered exactly,
+        // without going through Arity
+        String result = solveInteger(expr);
+        if (result == null && mMatrixEngine.isMatrixExpression(expr) && solveMatrix(expr, callback)) {
+            return;
+        }
+        if (result == null) {
+            result = solveExactly(expr);
+        }
+        if (result != null) {
+            callback.onEvaluate(expr, mTokenizer.getLocalizedExpression(result), Calculator.INVALID_RES_ID);
+            return;
+        }
+        if (NumberBaseManager.toBase(mRadix) == null) {
+            // The Solver would read these digits as decimal
+            callback.onEvaluate(expr, null, R.string.error);
+            return;
+        }
+
         try {
-            String result = mSolver.solve(expr);
-            result = mTokenizer.getLocalizedExpression(result);
-            callback.onEvaluate(expr, result, Calculator.INVALID_RES_ID);
+            result = mSolver.solve(expr);
+            if (needsPrecision(result)) {
+                String precise = solvePrecisely(expr);
+                if (precise != null) {
+                    result = precise;
+                }
+            }
         } catch (SyntaxException e) {
-            callback.onEvaluate(expr, null, R.string.error);
+            // Doubles overflow long before BigDecimals do
+            result = solvePrecisely(expr);
+            if (result == null) {
+                callback.onEvaluate(expr, null, R.string.error);
+                return;
+            }
+        }
+
+        result = mTokenizer.getLocalizedExpression(result);
+        callback.onEvaluate(expr, result, Calculator.INVALID_RES_ID);
+    }
+
+    /**
+     * Returns true if the Solver had to round or overflowed, which is when it's worth paying
+     * for BigDecimal math. Everything else stays on the fast double path.
+     */
+    private static boolean needsPrecision(String result) {
+        return result.indexOf('e') != -1
+                || result.indexOf('E') != -1
+                || result.contains("Infinity")
+                || result.indexOf('\u221e') != -1;
+    }
+
+    private String solveInteger(String expr) {
+        if (mRadix == 10) {
+            return null;
+        }
+
+        Long value = mIntegerEvaluator.evaluate(expr, mRadix);
+        if (value == null) {
+            return null;
+        }
+        return rememberInteger(value, mRadix);
+    }
+
+    private String rememberInteger(long value, int radix) {
+        mLastIntegerValue = value;
+        mLastIntegerResult = mIntegerEvaluator.toString(value, radix);
+        return mLastIntegerResult;
+    }
+
+    /**
+     * Returns the value of expr if it's a single integer (like the result of the last
+     * evaluation), or null if it has to be converted by the Solver.
+     */
+    private Long getIntegerValue(String expr) {
+        if (expr.equals(mLastIntegerResult)) {
+            return mLastIntegerValue;
+        }
+
+        // The most digits that are guaranteed to fit in a signed long
+        final int maxLength = (int) (63 * Math.log(2) / Math.log(mRadix));
+        int start = !expr.isEmpty() && (expr.charAt(0) == '-' || expr.charAt(0) == Constants.MINUS) ? 1 : 0;
+        if (expr.length() == start || expr.length() - start > maxLength) {
+            return null;
+        }
+        for (int i = start; i < expr.length(); i++) {
+            if (Character.digit(expr.charAt(i), mRadix) == -1 || Character.isLowerCase(expr.charAt(i))) {
+                return null;
+            }
+        }
+        return mIntegerEvaluator.evaluate(expr, mRadix);
+    }
+
+    /**
+     * Hands the expression to the matrix engine, which answers on the UI thread once it's done.
+     * Returns false if it isn't valid matrix math.
+     */
+    private boolean solveMatrix(final String expr, final EvaluateCallback callback) {
+        if (mRadix != 10) {
+            return false;
+        }
+
+        return mMatrixEngine.evaluate(expr, new MatrixEngine.Callback() {
+            @Override
+            public void onProgress(int percent) {
+                if (callback instanceof ProgressCallback) {
+                    ((ProgressCallback) callback).onProgress(percent);
+                }
+            }
+
+            @Override
+            public void onResult(String result) {
+                callback.onEvaluate(expr, mTokenizer.getLocalizedExpression(result), Calculator.INVALID_RES_ID);
+            }
+
+            @Override
+            public void onError() {
+                callback.onEvaluate(expr, null, R.string.error);
+            }
+        });
+    }
+
+    private String solveExactly(String expr) {
+        if (mRadix != 10) {
+            return null;
+        }
+
+        PreciseEvaluator.Result result = mPreciseEvaluator.parse(expr);
+        Rational value = result == null ? null : result.getExactValue();
+        if (value == null) {
+            return null;
+        }
+
+        if (value.isInteger()) {
+            // Big integers like 30! are only exact internally, the display gets the usual digits
+            return PreciseEvaluator.format(new BigDecimal(value.getNumerator()).round(new MathContext(PRECISE_DIGITS)), PRECISE_DIGITS);
         }
+        return PreciseEvaluator.fit(value.toBigDecimal(new MathContext(EXACT_DIGITS)), LINE_LENGTH);
+    }
+
+    private String solvePrecisely(String expr) {
+        if (mRadix != 10) {
+            return null;
+        }
+
+        PreciseEvaluator.Result result = mPreciseEvaluator.parse(expr);
+        return result == null ? null : result.toString(PRECISE_DIGITS);
     }
 
     public void setBase(String expr, Base base, EvaluateCallback callback) {
+        setRadix(expr, NumberBaseManager.toRadix(base), callback);
+    }
+
+    public void setRadix(String expr, int radix, EvaluateCallback callback) {
+        final Base base = NumberBaseManager.toBase(radix);
+        final boolean solverCanConvert = base != null && NumberBaseManager.toBase(mRadix) != null;
+
+        // A plain integer only needs to be printed again in the new base
+        Long value = getIntegerValue(expr);
+        if (value == null && !solverCanConvert && !expr.isEmpty()) {
+            // The Solver can't convert to or from this radix, so reduce it to a single integer
+            value = mIntegerEvaluator.evaluate(expr, mRadix);
+        }
+
+        if (value != null || !solverCanConvert) {
+            if (value == null && !expr.isEmpty()) {
+                callback.onEvaluate(expr, null, R.string.error);
+                return;
+            }
+
+            mRadix = radix;
+            mSolver.getBaseModule().setBase(base == null ? Base.DECIMAL : base);
+            callback.onEvaluate(expr, value == null ? expr : rememberInteger(value, radix), Calculator.INVALID_RES_ID);
+            return;
+        }
+
         try {
             String result = mSolver.getBaseModule().setBase(expr, base);
+            mRadix = radix;
             callback.onEvaluate(expr, result, Calculator.INVALID_RES_ID);
         } catch (SyntaxException e) {
             callback.onEvaluate(expr, null, R.string.error);
         }
     }
 
+    /**
+     * Switches radix without converting anything, for when the expression is already written
+     * in it (eg. restoring after a rotation).
+     */
+    public void setRadix(int radix) {
+        final Base base = NumberBaseManager.toBase(radix);
+        mRadix = radix;
+        mSolver.getBaseModule().setBase(base == null ? Base.DECIMAL : base);
+    }
+
+    public int getRadix() {
+        return mRadix;
+    }
+
     public Solver getSolver() {
         return mSolver;
     }
 
+    public IntegerEvaluator getIntegerEvaluator() {
+        return mIntegerEvaluator;
+    }
+
+    public MatrixEngine getMatrixEngine() {
+        return mMatrixEngine;
+    }
+
     public interface EvaluateCallback {
         void onEvaluate(String expr, String result, int errorResourceId);
     }
+
+    /**
+     * Implemented by callbacks that want to hear how far along a slow evaluation (like a large
+     * matrix inverse) is.
+     */
+    public interface ProgressCallback extends EvaluateCallback {
+        void onProgress(int percent);
+    }
 }
\ No newline at end of file
@@ -12,6 +12,22 @@ public class CalculatorSettings {
         return PreferenceManager.getDefaultSharedPreferences(context).getBoolean("USE_RADIANS", true);
     }
 
+    static void setWordSize(Context context, int wordSize) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putInt("WORD_SIZE", wordSize).commit();
+    }
+
+    static int getWordSize(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt("WORD_SIZE", 64);
+    }
+
+    static void setSignedEnabled(Context context, boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean("USE_SIGNED", enabled).commit();
+    }
+
+    static boolean useSigned(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean("USE_SIGNED", true);
+    }
+
     public static boolean showWidgetBackground(Context context) {
         return PreferenceManager.getDefaultSharedPreferences(context).getBoolean("SHOW_WIDGET_BACKGROUND", false);
     }
@@ -0,0 +1,129 @@
+package com.xlythe.calculator.material;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs history over the Wearable DataApi. Each device keeps one data item with its unacknowledged
+ * entries and one with its latest acknowledgement. The Data Layer holds on to them while the
+ * devices are apart and delivers them to HistorySyncService on the other end once they're back
+ * in range.
+ */
+public class DataLayerSyncTransport implements HistorySyncTransport {
+    private static final String TAG = DataLayerSyncTransport.class.getSimpleName();
+
+    // Must match the other device's DataLayerSyncTransport
+    static final String PATH_ENTRIES = "/calculator/history";
+    static final String PATH_ACKNOWLEDGEMENT = "/calculator/history_ack";
+    static final String KEY_ENTRIES = "entries";
+    static final String KEY_SEQUENCE = "sequence";
+    static final String KEY_INSTALL_ID = "install_id";
+    static final String KEY_PEER_INSTALL_ID = "peer_install_id";
+    private static final String KEY_TIMESTAMP = "timestamp";
+    private static final String KEY_FORMULA = "formula";
+    private static final String KEY_RESULT = "result";
+    // Data items only fire a change when their contents change, so resends are stamped
+    private static final String KEY_SENT = "sent";
+    private static final long CONNECTION_TIMEOUT = 5;
+
+    private final GoogleApiClient mClient;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    public DataLayerSyncTransport(Context context) {
+        mClient = new GoogleApiClient.Builder(context).addApi(Wearable.API).build();
+    }
+
+    @Override
+    public void sendEntries(String installId, List<HistorySync.Entry> entries) {
+        ArrayList<DataMap> maps = new ArrayList<>(entries.size());
+        for (HistorySync.Entry entry : entries) {
+            DataMap map = new DataMap();
+            map.putLong(KEY_SEQUENCE, entry.sequence);
+            map.putLong(KEY_TIMESTAMP, entry.timestamp);
+            map.putString(KEY_FORMULA, entry.formula);
+            map.putString(KEY_RESULT, entry.result);
+            maps.add(map);
+        }
+
+        PutDataMapRequest request = PutDataMapRequest.create(PATH_ENTRIES);
+        request.getDataMap().putString(KEY_INSTALL_ID, installId);
+        request.getDataMap().putDataMapArrayList(KEY_ENTRIES, maps);
+        request.getDataMap().putLong(KEY_SENT, System.currentTimeMillis());
+        put(request.asPutDataRequest());
+    }
+
+    @Override
+    public void sendAcknowledgement(String installId, String peerInstallId, long sequence) {
+        PutDataMapRequest request = PutDataMapRequest.create(PATH_ACKNOWLEDGEMENT);
+        request.getDataMap().putString(KEY_INSTALL_ID, installId);
+        request.getDataMap().putString(KEY_PEER_INSTALL_ID, peerInstallId);
+        request.getDataMap().putLong(KEY_SEQUENCE, sequence);
+        request.getDataMap().putLong(KEY_SENT, System.currentTimeMillis());
+        put(request.asPutDataRequest());
+    }
+
+    @Override
+    public void findPeer(final PeerCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (connect()
+                        && !Wearable.NodeApi.getConnectedNodes(mClient).await().getNodes().isEmpty()) {
+                    callback.onPeerFound();
+                }
+            }
+        });
+    }
+
+    private void put(final PutDataRequest request) {
+        // Nothing here is urgent, so let it go out whenever the Data Layer next syncs
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Either way, the outbox is kept until it's acknowledged, so it will be resent
+                if (!connect()) {
+                    Log.w(TAG, "Couldn't connect to sync history");
+                    return;
+                }
+                DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mClient, request).await();
+                if (!result.getStatus().isSuccess()) {
+                    Log.w(TAG, "Couldn't sync history: " + result.getStatus());
+                }
+            }
+        });
+    }
+
+    private boolean connect() {
+        return mClient.isConnected()
+                || mClient.blockingConnect(CONNECTION_TIMEOUT, TimeUnit.SECONDS).isSuccess();
+    }
+
+    static List<HistorySync.Entry> readEntries(DataMap dataMap) {
+        List<HistorySync.Entry> entries = new ArrayList<>();
+        ArrayList<DataMap> maps = dataMap.getDataMapArrayList(KEY_ENTRIES);
+        if (maps == null) {
+            return entries;
+        }
+        for (DataMap map : maps) {
+            entries.add(new HistorySync.Entry(
+                    map.getLong(KEY_SEQUENCE),
+                    map.getLong(KEY_TIMESTAMP),
+                    map.getString(KEY_FORMULA),
+                    map.getString(KEY_RESULT)));
+        }
+        return entries;
+    }
+}
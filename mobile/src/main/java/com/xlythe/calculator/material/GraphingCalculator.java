@@ -17,6 +17,7 @@ package com.xlythe.calculator.material;
 
 import android.animation.Animator;
 import android.os.Bundle;
+import android.support.v4.os.TraceCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -48,7 +49,9 @@ public abstract class GraphingCalculator extends HexCalculator {
     private ListView mActiveEquationsListView;
     private BaseAdapter mCurrentGraphsAdapter;
 
+    // Created on first use, or after the first frame. See getGraphController().
     private GraphController mGraphController;
+    private boolean mDestroyed = false;
 
     private boolean mMarkAsCleared = false;
 
@@ -64,6 +67,44 @@ public abstract class GraphingCalculator extends HexCalculator {
         mGraphButtons = findViewById(R.id.graph_buttons);
         mActiveEquationsListView = (ListView) findViewById(R.id.current_graphs);
 
+        // Keep the graph buttons tucked away from the first frame on
+        mGraphButtons.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+            @Override
+            public void onGlobalLayout() {
+                if (android.os.Build.VERSION.SDK_INT < 16) {
+                    mGraphButtons.getViewTreeObserver().removeGlobalOnLayoutListener(this);
+                } else {
+                    mGraphButtons.getViewTreeObserver().removeOnGlobalLayoutListener(this);
+                }
+                mGraphButtons.setTranslationY(mGraphButtons.getHeight());
+                resetGraph();
+            }
+        });
+
+        // The graph stays hidden until an equation uses X, so it's set up once the keypad is up
+        runAfterFirstFrame(new Runnable() {
+            @Override
+            public void run() {
+                getGraphController();
+            }
+        });
+    }
+
+    /**
+     * Returns null once the activity has been destroyed. A task posted by runAfterFirstFrame()
+     * can still run after a configuration change, and must not build a controller for dead
+     * views that nothing would ever destroy.
+     */
+    private GraphController getGraphController() {
+        if (mGraphController == null && !mDestroyed) {
+            TraceCompat.beginSection("GraphingCalculator.initializeGraph");
+            initializeGraph();
+            TraceCompat.endSection();
+        }
+        return mGraphController;
+    }
+
+    private void initializeGraph() {
         mGraphController = new GraphController(new GraphModule(getEvaluator().getSolver()), mMiniGraph);
 
         mMiniGraph.setOnCenterListener(new GraphView.OnCenterListener() {
@@ -85,18 +126,6 @@ public abstract class GraphingCalculator extends HexCalculator {
             }
         });
         invalidateInlineBounds();
-        mGraphButtons.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
-            @Override
-            public void onGlobalLayout() {
-                if (android.os.Build.VERSION.SDK_INT < 16) {
-                    mGraphButtons.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                } else {
-                    mGraphButtons.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                }
-                mGraphButtons.setTranslationY(mGraphButtons.getHeight());
-                resetGraph();
-            }
-        });
 
         mCurrentGraphsAdapter = new ArrayAdapter<GraphView.Graph>(this, R.layout.graph_entry, mGraphController.getGraphs()) {
             @Override
@@ -139,7 +168,9 @@ public abstract class GraphingCalculator extends HexCalculator {
 
                 if (mMarkAsCleared) {
                     mMarkAsCleared = false;
-                    mGraphController.clear();
+                    if (mGraphController != null) {
+                        mGraphController.clear();
+                    }
                 }
             }
         });
@@ -221,7 +252,7 @@ public abstract class GraphingCalculator extends HexCalculator {
     @Override
     public void onEvaluate(String expr, String result, int errorResourceId) {
         // Race condition where onDestroy gets called before onEvaluate. Rare, but can happen.
-        if (mGraphController == null) {
+        if (mDestroyed) {
             return;
         }
 
@@ -239,10 +270,11 @@ public abstract class GraphingCalculator extends HexCalculator {
 
             String formula = getNormalizedExpression(cleanExpression(mFormulaEditText.getCleanText()));
 
-            if (mGraphController.getGraphs().size() == 0) {
-                mGraphController.addNewGraph(formula);
+            GraphController graphController = getGraphController();
+            if (graphController.getGraphs().size() == 0) {
+                graphController.addNewGraph(formula);
             } else {
-                mGraphController.changeLatestGraph(formula);
+                graphController.changeLatestGraph(formula);
             }
 
             notifyDataSetChanged();
@@ -253,6 +285,7 @@ public abstract class GraphingCalculator extends HexCalculator {
 
     @Override
     protected void onDestroy() {
+        mDestroyed = true;
         if (mGraphController != null) {
             mGraphController.destroy();
             mGraphController = null;
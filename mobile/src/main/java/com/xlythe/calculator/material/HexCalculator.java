@@ -31,7 +31,6 @@ import android.widget.TextView;
 import com.xlythe.calculator.material.CalculatorExpressionEvaluator.EvaluateCallback;
 import com.xlythe.calculator.material.util.TextUtil;
 import com.xlythe.calculator.material.view.FormattedNumberEditText;
-import com.xlythe.math.Base;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -43,7 +42,7 @@ import java.util.Locale;
 public abstract class HexCalculator extends PanelSwitchingCalculator {
 
     // instance state keys
-    private static final String KEY_BASE = NAME + "_base";
+    private static final String KEY_RADIX = NAME + "_radix";
 
     private FormattedNumberEditText mFormulaEditText;
     private TextView mResultEditText;
@@ -56,7 +55,7 @@ public abstract class HexCalculator extends PanelSwitchingCalculator {
     @Override
     protected void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putInt(KEY_BASE, mBaseManager.getNumberBase().ordinal());
+        outState.putInt(KEY_RADIX, mBaseManager.getRadix());
     }
 
     @Override
@@ -66,18 +65,21 @@ public abstract class HexCalculator extends PanelSwitchingCalculator {
         mFormulaEditText = (FormattedNumberEditText) findViewById(R.id.formula);
         mResultEditText = (TextView) findViewById(R.id.result);
 
-        Base base = Base.DECIMAL;
-        int baseOrdinal = savedInstanceState.getInt(KEY_BASE, -1);
-        if (baseOrdinal != -1) {
-            base = Base.values()[baseOrdinal];
-        }
-        mBaseManager = new NumberBaseManager(base);
-        invalidateSelectedBase(base);
+        int radix = savedInstanceState.getInt(KEY_RADIX, 10);
+        mBaseManager = new NumberBaseManager(radix);
+        // The restored formula is already written in this radix
+        getEvaluator().setRadix(radix);
+        getEvaluator().getIntegerEvaluator().setWordSize(CalculatorSettings.getWordSize(this));
+        getEvaluator().getIntegerEvaluator().setSigned(CalculatorSettings.useSigned(this));
+        invalidateSelectedBase();
 
-        mShowBaseDetails = !mBaseManager.getNumberBase().equals(Base.DECIMAL);
+        mShowBaseDetails = radix != 10;
         mShowTrigDetails = false;
 
-        invalidateDetails();
+        // In decimal there are no details to show yet, so there's nothing to build
+        if (mShowBaseDetails) {
+            invalidateDetails();
+        }
     }
 
     @Override
@@ -90,13 +92,13 @@ public abstract class HexCalculator extends PanelSwitchingCalculator {
                 invalidateDetails();
                 break;
             case R.id.hex:
-                setBase(Base.HEXADECIMAL);
+                setRadix(16);
                 return;
             case R.id.bin:
-                setBase(Base.BINARY);
+                setRadix(2);
                 return;
             case R.id.dec:
-                setBase(Base.DECIMAL);
+                setRadix(10);
                 return;
         }
         super.onButtonClick(view);
@@ -115,13 +117,13 @@ public abstract class HexCalculator extends PanelSwitchingCalculator {
         return super.onLongClick(view);
     }
 
-    private void setBase(Base base) {
+    private void setRadix(int radix) {
         // Update the BaseManager, which handles restricting which buttons to show
-        mBaseManager.setNumberBase(base);
+        mBaseManager.setRadix(radix);
         mShowBaseDetails = true;
 
         // Update the evaluator, which handles the math
-        getEvaluator().setBase(mFormulaEditText.getCleanText(), base, new EvaluateCallback() {
+        getEvaluator().setRadix(mFormulaEditText.getCleanText(), radix, new EvaluateCallback() {
             @Override
             public void onEvaluate(String expr, String result, int errorResourceId) {
                 if (errorResourceId != INVALID_RES_ID) {
@@ -132,27 +134,29 @@ public abstract class HexCalculator extends PanelSwitchingCalculator {
                 }
             }
         });
-        invalidateSelectedBase(base);
+        invalidateSelectedBase();
     }
 
-    private void invalidateSelectedBase(Base base) {
-        setSelectedBaseButton(base);
+    private void invalidateSelectedBase() {
+        setSelectedBaseButton(mBaseManager.getRadix());
 
         // Disable any buttons that are not relevant to the current base
-        for (int resId : mBaseManager.getViewIds()) {
-            View view = findViewById(resId);
+        final int[] viewIds = mBaseManager.getViewIds();
+        final long disabledMask = mBaseManager.getDisabledMask();
+        for (int i = 0; i < viewIds.length; i++) {
+            View view = findViewById(viewIds[i]);
             if (view != null) {
-                view.setEnabled(!mBaseManager.isViewDisabled(resId));
+                view.setEnabled((disabledMask & (1L << i)) == 0);
             }
         }
 
         invalidateDetails();
     }
 
-    private void setSelectedBaseButton(Base base) {
-        findViewById(R.id.hex).setSelected(base.equals(Base.HEXADECIMAL));
-        findViewById(R.id.bin).setSelected(base.equals(Base.BINARY));
-        findViewById(R.id.dec).setSelected(base.equals(Base.DECIMAL));
+    private void setSelectedBaseButton(int radix) {
+        findViewById(R.id.hex).setSelected(radix == 16);
+        findViewById(R.id.bin).setSelected(radix == 2);
+        findViewById(R.id.dec).setSelected(radix == 10);
     }
 
     protected void invalidateDetails() {
@@ -181,6 +185,9 @@ public abstract class HexCalculator extends PanelSwitchingCalculator {
         List<Detail> details = new LinkedList<>();
         if (mShowBaseDetails) {
             details.add(getBaseDetail());
+            if (mBaseManager.getRadix() != 10) {
+                details.add(getWordSizeDetail());
+            }
         }
         if (mShowTrigDetails) {
             details.add(getUnitDetail());
@@ -189,44 +196,90 @@ public abstract class HexCalculator extends PanelSwitchingCalculator {
     }
 
     private Detail getBaseDetail() {
-        String text = "";
-        switch (mBaseManager.getNumberBase()) {
-            case HEXADECIMAL:
-                text = getString(R.string.hex).toUpperCase(Locale.getDefault());
+        String text;
+        switch (mBaseManager.getRadix()) {
+            case 16:
+                text = getString(R.string.hex);
+                break;
+            case 10:
+                text = getString(R.string.dec);
+                break;
+            case 8:
+                text = getString(R.string.oct);
                 break;
-            case BINARY:
-                text = getString(R.string.bin).toUpperCase(Locale.getDefault());
+            case 2:
+                text = getString(R.string.bin);
                 break;
-            case DECIMAL:
-                text = getString(R.string.dec).toUpperCase(Locale.getDefault());
+            default:
+                text = getString(R.string.base_n, mBaseManager.getRadix());
                 break;
         }
+        text = text.toUpperCase(Locale.getDefault());
 
         View.OnClickListener listener = new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                final int DEC = 0;
-                final int HEX = 1;
-                final int BIN = 2;
                 final PopupMenu popupMenu = new PopupMenu(HexCalculator.this, mInfoView);
                 final Menu menu = popupMenu.getMenu();
-                menu.add(0, DEC, menu.size(), R.string.desc_dec);
-                menu.add(0, HEX, menu.size(), R.string.desc_hex);
-                menu.add(0, BIN, menu.size(), R.string.desc_bin);
+                // Item IDs are the radix itself
+                menu.add(0, 10, menu.size(), R.string.desc_dec);
+                menu.add(0, 16, menu.size(), R.string.desc_hex);
+                menu.add(0, 8, menu.size(), R.string.desc_oct);
+                menu.add(0, 2, menu.size(), R.string.desc_bin);
+                final Menu otherBases = menu.addSubMenu(R.string.other_bases);
+                for (int radix = NumberBaseManager.MIN_RADIX; radix <= NumberBaseManager.MAX_RADIX; radix++) {
+                    otherBases.add(0, radix, otherBases.size(), getString(R.string.base_n, radix));
+                }
                 popupMenu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
                     @Override
                     public boolean onMenuItemClick(MenuItem item) {
-                        switch (item.getItemId()) {
-                            case DEC:
-                                setBase(Base.DECIMAL);
-                                break;
-                            case HEX:
-                                setBase(Base.HEXADECIMAL);
-                                break;
-                            case BIN:
-                                setBase(Base.BINARY);
-                                break;
+                        if (item.hasSubMenu()) {
+                            return false;
+                        }
+                        setRadix(item.getItemId());
+                        return true;
+                    }
+                });
+                popupMenu.show();
+            }
+        };
+        return new Detail(text, listener);
+    }
+
+    private Detail getWordSizeDetail() {
+        final IntegerEvaluator evaluator = getEvaluator().getIntegerEvaluator();
+        String text = getString(R.string.word_size, evaluator.getWordSize()) + " "
+                + getString(evaluator.isSigned() ? R.string.signed : R.string.unsigned);
+        text = text.toUpperCase(Locale.getDefault());
+
+        View.OnClickListener listener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                final int[] WORD_SIZES = {8, 16, 32, 64};
+                final int SIGNED = WORD_SIZES.length;
+                final int UNSIGNED = WORD_SIZES.length + 1;
+                final PopupMenu popupMenu = new PopupMenu(HexCalculator.this, mInfoView);
+                final Menu menu = popupMenu.getMenu();
+                for (int i = 0; i < WORD_SIZES.length; i++) {
+                    menu.add(0, i, menu.size(), getString(R.string.word_size, WORD_SIZES[i]));
+                }
+                menu.add(0, SIGNED, menu.size(), R.string.signed);
+                menu.add(0, UNSIGNED, menu.size(), R.string.unsigned);
+                popupMenu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+                    @Override
+                    public boolean onMenuItemClick(MenuItem item) {
+                        if (item.getItemId() == SIGNED || item.getItemId() == UNSIGNED) {
+                            evaluator.setSigned(item.getItemId() == SIGNED);
+                            CalculatorSettings.setSignedEnabled(getBaseContext(), evaluator.isSigned());
+                        } else {
+                            evaluator.setWordSize(WORD_SIZES[item.getItemId()]);
+                            CalculatorSettings.setWordSize(getBaseContext(), evaluator.getWordSize());
                         }
+                        invalidateDetails();
+                        if (getState() != CalculatorState.GRAPHING) {
+                            setState(CalculatorState.INPUT);
+                        }
+                        getEvaluator().evaluate(mFormulaEditText.getCleanText(), HexCalculator.this);
                         return true;
                     }
                 });
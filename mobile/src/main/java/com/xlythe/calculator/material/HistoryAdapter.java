@@ -17,43 +17,103 @@
 package com.xlythe.calculator.material;
 
 import android.content.Context;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
-import android.text.Html;
 import android.text.Spanned;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.xlythe.calculator.material.util.FormattedTextCache;
 import com.xlythe.calculator.material.view.GraphView;
 import com.xlythe.calculator.material.view.HistoryLine;
-import com.xlythe.math.Constants;
-import com.xlythe.math.EquationFormatter;
 import com.xlythe.math.GraphModule;
 import com.xlythe.math.History;
 import com.xlythe.math.HistoryEntry;
 import com.xlythe.math.Solver;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHolder> {
+    // How many rows past the one being bound to format ahead of time
+    private static final int PREFETCH_DISTANCE = 5;
+
     private final Context mContext;
     private final Solver mSolver;
-    private final List<HistoryEntry> mEntries;
-    private final EquationFormatter mEquationFormatter;
+    private List<HistoryEntry> mEntries;
+    // The entries as the RecyclerView last saw them. Used to work out what actually changed.
+    private final List<HistoryEntry> mSnapshot = new ArrayList<>();
+    private final FormattedTextCache mFormattedTextCache;
     private final String mX;
     private OnItemClickListener mOnItemClickListener;
     private OnItemLongClickListener mOnItemLongClickListener;
     private HistoryEntry mDisplayEntry;
 
+    public HistoryAdapter(Context context, Solver solver) {
+        this(context, solver, null);
+    }
+
     public HistoryAdapter(Context context, Solver solver, History history) {
         mContext = context;
         mSolver = solver;
-        mEntries = history.getEntries();
-        mEquationFormatter = new EquationFormatter();
+        mEntries = history == null ? Collections.<HistoryEntry>emptyList() : history.getEntries();
+        mFormattedTextCache = new FormattedTextCache(solver);
         mX = context.getString(R.string.var_x);
     }
 
+    /**
+     * Swaps in the history once it has finished loading.
+     */
+    public void setHistory(History history) {
+        mEntries = history.getEntries();
+        mSnapshot.clear();
+        mSnapshot.addAll(mEntries);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Compares the history against what was last shown, and only notifies the rows that were
+     * inserted, removed or now need to be drawn differently.
+     */
+    public void notifyHistoryChanged() {
+        final List<HistoryEntry> oldEntries = new ArrayList<>(mSnapshot);
+        final List<HistoryEntry> newEntries = mEntries;
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldEntries.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newEntries.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldEntries.get(oldItemPosition) == newEntries.get(newItemPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                // A row is drawn as a card or as a subitem depending on the row after it
+                return isGroupedWithNext(oldEntries, oldItemPosition)
+                        == isGroupedWithNext(newEntries, newItemPosition);
+            }
+        }, false);
+        mSnapshot.clear();
+        mSnapshot.addAll(mEntries);
+        result.dispatchUpdatesTo(this);
+    }
+
+    private static boolean isGroupedWithNext(List<HistoryEntry> entries, int position) {
+        return position + 1 < entries.size()
+                && entries.get(position).getGroupId() == entries.get(position + 1).getGroupId();
+    }
+
     public void setOnItemClickListener(OnItemClickListener onItemClickListener) {
         mOnItemClickListener = onItemClickListener;
     }
@@ -72,6 +132,21 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHold
     public void onBindViewHolder(ViewHolder holder, int position) {
         final HistoryEntry entry = getEntry(position);
         invalidate(holder, entry, position);
+        prefetch(position);
+    }
+
+    private void prefetch(int position) {
+        for (int i = 1; i <= PREFETCH_DISTANCE; i++) {
+            prefetch(getEntry(position - i));
+            prefetch(getEntry(position + i));
+        }
+    }
+
+    private void prefetch(HistoryEntry entry) {
+        if (entry != null) {
+            mFormattedTextCache.prefetch(entry.getFormula());
+            mFormattedTextCache.prefetch(entry.getResult());
+        }
     }
 
     private void invalidate(final ViewHolder holder, final HistoryEntry entry, int position) {
@@ -184,13 +259,21 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHold
     }
 
     public void setDisplayEntry(String formula, String result) {
+        boolean inserted = mDisplayEntry == null;
         mDisplayEntry = new HistoryEntry(formula, result, -1);
-        notifyDataSetChanged();
+        if (inserted) {
+            notifyItemInserted(mEntries.size());
+        } else {
+            notifyItemChanged(mEntries.size());
+        }
     }
 
     public void clearDisplayEntry() {
+        if (mDisplayEntry == null) {
+            return;
+        }
         mDisplayEntry = null;
-        notifyDataSetChanged();
+        notifyItemRemoved(mEntries.size());
     }
 
     @Override
@@ -208,16 +291,7 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHold
     }
 
     protected Spanned formatText(String text) {
-        if (text == null) {
-            return null;
-        }
-
-        if (text.matches(".*\\de[-" + Constants.MINUS + "]?\\d.*")) {
-            text = text.replace("e", Constants.MUL + "10^");
-        }
-        return Html.fromHtml(
-                mEquationFormatter.insertSupScripts(
-                        mEquationFormatter.addComas(mSolver, text)));
+        return mFormattedTextCache.get(text);
     }
 
     public Context getContext() {
@@ -0,0 +1,119 @@
+package com.xlythe.calculator.material;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import com.xlythe.math.HistoryEntry;
+
+import java.util.List;
+
+/**
+ * Exposes HistoryRepository to the rest of the app, so that widgets and anything running in
+ * another process read and write the same history instead of their own copy of the file.
+ * Rows are identified by their position in the history.
+ */
+public class HistoryProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.xlythe.calculator.material.history";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/history");
+
+    public static final String COLUMN_FORMULA = "formula";
+    public static final String COLUMN_RESULT = "result";
+
+    private static final String[] COLUMNS = { BaseColumns._ID, COLUMN_FORMULA, COLUMN_RESULT };
+
+    private static final int HISTORY = 1;
+    private static final int HISTORY_ENTRY = 2;
+    private static final UriMatcher sMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    static {
+        sMatcher.addURI(AUTHORITY, "history", HISTORY);
+        sMatcher.addURI(AUTHORITY, "history/#", HISTORY_ENTRY);
+    }
+
+    private HistoryRepository mRepository;
+
+    @Override
+    public boolean onCreate() {
+        mRepository = HistoryRepository.getInstance(getContext());
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        List<HistoryEntry> entries = mRepository.getEntries();
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        switch (sMatcher.match(uri)) {
+            case HISTORY:
+                for (int i = 0; i < entries.size(); i++) {
+                    addRow(cursor, i, entries.get(i));
+                }
+                break;
+            case HISTORY_ENTRY:
+                int id = (int) ContentUris.parseId(uri);
+                if (id >= 0 && id < entries.size()) {
+                    addRow(cursor, id, entries.get(id));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown uri " + uri);
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+        return cursor;
+    }
+
+    private static void addRow(MatrixCursor cursor, int id, HistoryEntry entry) {
+        cursor.addRow(new Object[] { id, entry.getFormula(), entry.getResult() });
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (sMatcher.match(uri)) {
+            case HISTORY:
+                return "vnd.android.cursor.dir/vnd." + AUTHORITY;
+            case HISTORY_ENTRY:
+                return "vnd.android.cursor.item/vnd." + AUTHORITY;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        if (sMatcher.match(uri) != HISTORY) {
+            throw new IllegalArgumentException("Unknown uri " + uri);
+        }
+        mRepository.enter(values.getAsString(COLUMN_FORMULA), values.getAsString(COLUMN_RESULT));
+        return ContentUris.withAppendedId(CONTENT_URI, mRepository.getEntries().size() - 1);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        switch (sMatcher.match(uri)) {
+            case HISTORY:
+                int count = mRepository.getEntries().size();
+                mRepository.clear();
+                return count;
+            case HISTORY_ENTRY:
+                List<HistoryEntry> entries = mRepository.getEntries();
+                int id = (int) ContentUris.parseId(uri);
+                if (id < 0 || id >= entries.size()) {
+                    return 0;
+                }
+                mRepository.remove(entries.get(id));
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unknown uri " + uri);
+        }
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // History entries are never edited, only added and removed
+        return 0;
+    }
+}
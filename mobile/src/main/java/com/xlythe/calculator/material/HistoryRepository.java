@@ -0,0 +1,281 @@
+package com.xlythe.calculator.material;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.xlythe.math.Base;
+import com.xlythe.math.History;
+import com.xlythe.math.HistoryEntry;
+import com.xlythe.math.Persist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The one copy of the history for the whole process. The activity, the floating calculator,
+ * the widget and HistoryProvider all read and write through here, instead of each loading
+ * the file, changing it and saving it back over each other's changes.
+ *
+ * Changes are saved behind the caller's back, after a short delay so that a burst of them is
+ * only written once. Adapters hold on to the live list of entries and read it on the main
+ * thread, so every change is made on the main thread too, and observers are told about it
+ * right away, before anything gets the chance to lay out the new list.
+ */
+public class HistoryRepository {
+    // How long to wait for more changes before writing them to disk
+    private static final long WRITE_DELAY = 1000;
+
+    private static HistoryRepository sInstance;
+
+    public static synchronized HistoryRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HistoryRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private final List<History.Observer> mObservers = new ArrayList<>();
+
+    // Guards the history itself, which is read from binder threads by the provider and
+    // written to disk on mWriter
+    private final Object mLock = new Object();
+    // Keeps writes in order. The main thread never waits on this one.
+    private final Object mWriteLock = new Object();
+    private Persist mPersist;
+    // Whether there are changes that haven't been written yet
+    private boolean mDirty;
+    // Whether observers have yet to hear about the change being made. Main thread only.
+    private boolean mChanged;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            });
+        }
+    };
+
+    private HistoryRepository(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns true once the history has been read from disk, after which getHistory() won't
+     * block.
+     */
+    public boolean isLoaded() {
+        synchronized (mLock) {
+            return mPersist != null;
+        }
+    }
+
+    /**
+     * Returns the history, reading it from disk first if this is the first time it's been
+     * asked for. Don't call this on the main thread unless isLoaded() is true.
+     */
+    public History getHistory() {
+        synchronized (mLock) {
+            if (mPersist == null) {
+                mPersist = new Persist(mContext);
+                mPersist.load();
+                if (mPersist.getMode() == null) {
+                    mPersist.setMode(Base.DECIMAL);
+                }
+                mPersist.getHistory().setObserver(new History.Observer() {
+                    @Override
+                    public void notifyDataSetChanged() {
+                        onChanged();
+                    }
+                });
+            }
+            return mPersist.getHistory();
+        }
+    }
+
+    /**
+     * Returns a copy of the entries, safe to use from any thread.
+     */
+    public List<HistoryEntry> getEntries() {
+        History history = getHistory();
+        synchronized (mLock) {
+            return new ArrayList<>(history.getEntries());
+        }
+    }
+
+    /**
+     * Adds an entry. Like all changes, it's made on the main thread; from any other thread,
+     * this waits for it.
+     */
+    public void enter(String formula, String result) {
+        enterFromSync(formula, result);
+        HistorySync.getInstance(mContext).onLocalEntry(formula, result);
+    }
+
+    /**
+     * Adds an entry that came from another device. Unlike enter(), it isn't sent back out.
+     */
+    void enterFromSync(final String formula, final String result) {
+        change(new Change() {
+            @Override
+            public void apply(History history) {
+                history.enter(formula, result);
+            }
+        });
+    }
+
+    public void remove(final HistoryEntry entry) {
+        change(new Change() {
+            @Override
+            public void apply(History history) {
+                history.remove(entry);
+            }
+        });
+    }
+
+    public void clear() {
+        change(new Change() {
+            @Override
+            public void apply(History history) {
+                for (HistoryEntry entry : new ArrayList<>(history.getEntries())) {
+                    history.remove(entry);
+                }
+            }
+        });
+    }
+
+    public void incrementGroupId() {
+        change(new Change() {
+            @Override
+            public void apply(History history) {
+                history.incrementGroupId();
+            }
+        });
+    }
+
+    /**
+     * Makes the change on the main thread, waiting for it if called from anywhere else.
+     */
+    private void change(final Change change) {
+        // Load on the calling thread, so the main thread never has to wait on the disk for it
+        final History history = getHistory();
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            apply(history, change);
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    apply(history, change);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            // The change will still be made, we just won't wait around for it
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void apply(History history, Change change) {
+        synchronized (mLock) {
+            change.apply(history);
+        }
+        if (mChanged) {
+            mChanged = false;
+            for (History.Observer observer : new ArrayList<>(mObservers)) {
+                observer.notifyDataSetChanged();
+            }
+            mContext.getContentResolver().notifyChange(HistoryProvider.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * Observers are called on the main thread as soon as the history changes, no matter who
+     * changed it.
+     */
+    public void addObserver(History.Observer observer) {
+        mObservers.add(observer);
+    }
+
+    public void removeObserver(History.Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * Writes any pending changes now (well, on the writer thread), instead of waiting.
+     */
+    public void flush() {
+        if (!isLoaded()) {
+            return;
+        }
+        mHandler.removeCallbacks(mWriteRunnable);
+        mWriteRunnable.run();
+    }
+
+    /**
+     * Writes any pending changes on the calling thread, and only returns once they're on disk.
+     * For callers whose process may be killed as soon as they return, like a widget's
+     * receiver. Don't call this on the main thread.
+     */
+    public void flushNow() {
+        if (!isLoaded()) {
+            return;
+        }
+        mHandler.removeCallbacks(mWriteRunnable);
+        save();
+    }
+
+    private void save() {
+        synchronized (mWriteLock) {
+            // Only hold up the main thread for as long as it takes to copy the entries, not for
+            // the write itself
+            Persist snapshot;
+            synchronized (mLock) {
+                if (!mDirty) {
+                    return;
+                }
+                mDirty = false;
+                snapshot = new Persist(mContext);
+                snapshot.setMode(mPersist.getMode());
+                List<HistoryEntry> entries = snapshot.getHistory().getEntries();
+                entries.clear();
+                entries.addAll(mPersist.getHistory().getEntries());
+            }
+            snapshot.save();
+        }
+    }
+
+    /**
+     * Called by the history itself, on the main thread, whenever an entry is added or removed.
+     * Observers are told once the whole change has been made.
+     */
+    private void onChanged() {
+        synchronized (mLock) {
+            mDirty = true;
+        }
+        mChanged = true;
+        mHandler.removeCallbacks(mWriteRunnable);
+        mHandler.postDelayed(mWriteRunnable, WRITE_DELAY);
+    }
+
+    private interface Change {
+        void apply(History history);
+    }
+}
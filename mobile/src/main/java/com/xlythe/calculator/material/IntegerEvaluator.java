@@ -0,0 +1,268 @@
+package com.xlythe.calculator.material;
+
+import com.xlythe.math.Constants;
+
+import java.math.BigInteger;
+import java.util.Locale;
+
+/**
+ * Evaluates integer expressions the way a programmer's calculator would: on a fixed width
+ * word (8, 16, 32 or 64 bits), signed or unsigned, with bitwise operators. Numbers are parsed
+ * and printed directly in their base (any radix from 2 to 36), without going through decimal
+ * strings.
+ */
+public class IntegerEvaluator {
+    public static final char AND = '\u2227';
+    public static final char OR = '\u2228';
+    public static final char XOR = '\u2295';
+    public static final char NOT = '\u00AC';
+    public static final char SHIFT_LEFT = '\u00AB';
+    public static final char SHIFT_RIGHT = '\u00BB';
+
+    private int mWordSize = 64;
+    private boolean mSigned = true;
+
+    public int getWordSize() {
+        return mWordSize;
+    }
+
+    public void setWordSize(int wordSize) {
+        if (wordSize != 8 && wordSize != 16 && wordSize != 32 && wordSize != 64) {
+            throw new IllegalArgumentException("Unsupported word size " + wordSize);
+        }
+        mWordSize = wordSize;
+    }
+
+    public boolean isSigned() {
+        return mSigned;
+    }
+
+    public void setSigned(boolean signed) {
+        mSigned = signed;
+    }
+
+    /**
+     * Evaluates the expression, written in the given radix. Returns null if the expression
+     * isn't plain integer math (eg. it has fractions or functions), or divides by zero.
+     */
+    public Long evaluate(String expr, int radix) {
+        try {
+            return new Parser(expr, radix).parse();
+        } catch (UnsupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Renders the value in the given radix. Decimal honors the signed/unsigned setting, every
+     * other radix shows the raw bits of the word.
+     */
+    public String toString(long value, int radix) {
+        value = truncate(value);
+        if (radix == 10) {
+            return mSigned ? Long.toString(value) : toUnsignedString(value, radix);
+        }
+        return toUnsignedString(mask(value), radix).toUpperCase(Locale.US);
+    }
+
+    private static String toUnsignedString(long value, int radix) {
+        if (value < 0) {
+            // Only possible for 64 bit words, where the top bit doesn't fit in a signed long
+            return BigInteger.valueOf(value).add(BigInteger.ONE.shiftLeft(64)).toString(radix);
+        }
+        return Long.toString(value, radix);
+    }
+
+    /**
+     * Wraps the value to the word size, sign extending it when signed.
+     */
+    long truncate(long value) {
+        if (mWordSize == 64) {
+            return value;
+        }
+        final int shift = 64 - mWordSize;
+        return mSigned ? (value << shift) >> shift : (value << shift) >>> shift;
+    }
+
+    private long mask(long value) {
+        return mWordSize == 64 ? value : value & ((1L << mWordSize) - 1);
+    }
+
+    private static class UnsupportedException extends Exception {
+        UnsupportedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A recursive descent parser with C's precedence: unary, multiplicative, additive, shifts,
+     * and, xor, or. Every intermediate result is wrapped to the word size.
+     */
+    private class Parser {
+        private final String mExpr;
+        private final int mRadix;
+        private int mPosition;
+
+        Parser(String expr, int radix) {
+            mExpr = expr;
+            mRadix = radix;
+        }
+
+        long parse() throws UnsupportedException {
+            if (mExpr.isEmpty()) {
+                throw new UnsupportedException("Empty expression");
+            }
+            long value = parseOr();
+            if (mPosition != mExpr.length()) {
+                throw new UnsupportedException("Unexpected " + mExpr.charAt(mPosition));
+            }
+            return value;
+        }
+
+        private long parseOr() throws UnsupportedException {
+            long value = parseXor();
+            while (accept(OR) || accept('|')) {
+                value = truncate(value | parseXor());
+            }
+            return value;
+        }
+
+        private long parseXor() throws UnsupportedException {
+            long value = parseAnd();
+            while (accept(XOR)) {
+                value = truncate(value ^ parseAnd());
+            }
+            return value;
+        }
+
+        private long parseAnd() throws UnsupportedException {
+            long value = parseShift();
+            while (accept(AND) || accept('&')) {
+                value = truncate(value & parseShift());
+            }
+            return value;
+        }
+
+        private long parseShift() throws UnsupportedException {
+            long value = parseAdditive();
+            while (true) {
+                if (accept(SHIFT_LEFT) || accept("<<")) {
+                    value = truncate(value << toShift(parseAdditive()));
+                } else if (accept(SHIFT_RIGHT) || accept(">>")) {
+                    // Unsigned words shift in zeros, signed words copy the sign bit
+                    int shift = toShift(parseAdditive());
+                    value = truncate(mSigned ? value >> shift : mask(value) >>> shift);
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        private long parseAdditive() throws UnsupportedException {
+            long value = parseMultiplicative();
+            while (true) {
+                if (accept('+') || accept(Constants.PLUS)) {
+                    value = truncate(value + parseMultiplicative());
+                } else if (accept('-') || accept(Constants.MINUS)) {
+                    value = truncate(value - parseMultiplicative());
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        private long parseMultiplicative() throws UnsupportedException {
+            long value = parseUnary();
+            while (true) {
+                if (accept('*') || accept(Constants.MUL)) {
+                    value = truncate(value * parseUnary());
+                } else if (accept('/') || accept(Constants.DIV)) {
+                    value = truncate(divide(value, parseUnary()));
+                } else if (peek() == '(') {
+                    // Implicit multiplication, eg. 2(3)
+                    value = truncate(value * parseUnary());
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        private long parseUnary() throws UnsupportedException {
+            if (accept('-') || accept(Constants.MINUS)) {
+                return truncate(-parseUnary());
+            }
+            if (accept(NOT) || accept('~')) {
+                return truncate(~parseUnary());
+            }
+            return parsePrimary();
+        }
+
+        private long parsePrimary() throws UnsupportedException {
+            if (accept('(')) {
+                long value = parseOr();
+                if (!accept(')') && mPosition != mExpr.length()) {
+                    throw new UnsupportedException("Unbalanced parenthesis");
+                }
+                return value;
+            }
+
+            final int start = mPosition;
+            long value = 0;
+            while (mPosition < mExpr.length()) {
+                int digit = Character.digit(mExpr.charAt(mPosition), mRadix);
+                // Lowercase letters belong to functions (eg. 'e' in 'sec'), not to hex numbers
+                if (digit == -1 || Character.isLowerCase(mExpr.charAt(mPosition))) {
+                    break;
+                }
+                value = value * mRadix + digit;
+                mPosition++;
+            }
+            if (start == mPosition) {
+                throw new UnsupportedException("Expected a number at " + start);
+            }
+            return truncate(value);
+        }
+
+        private long divide(long dividend, long divisor) throws UnsupportedException {
+            if (divisor == 0) {
+                throw new UnsupportedException("Division by zero");
+            }
+            if (!mSigned) {
+                // Unsigned division for 64 bit words, where the operands may look negative
+                if (dividend < 0 || divisor < 0) {
+                    return BigInteger.valueOf(dividend).add(dividend < 0 ? BigInteger.ONE.shiftLeft(64) : BigInteger.ZERO)
+                            .divide(BigInteger.valueOf(divisor).add(divisor < 0 ? BigInteger.ONE.shiftLeft(64) : BigInteger.ZERO))
+                            .longValue();
+                }
+            }
+            return dividend / divisor;
+        }
+
+        private int toShift(long value) throws UnsupportedException {
+            if (value < 0 || value >= mWordSize) {
+                throw new UnsupportedException("Shift out of range " + value);
+            }
+            return (int) value;
+        }
+
+        private boolean accept(char c) {
+            if (peek() == c) {
+                mPosition++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean accept(String s) {
+            if (mExpr.startsWith(s, mPosition)) {
+                mPosition += s.length();
+                return true;
+            }
+            return false;
+        }
+
+        private char peek() {
+            return mPosition < mExpr.length() ? mExpr.charAt(mPosition) : '\0';
+        }
+    }
+}
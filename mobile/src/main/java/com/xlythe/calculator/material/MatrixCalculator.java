@@ -15,22 +15,48 @@
 */
 package com.xlythe.calculator.material;
 
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
 import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import com.xlythe.calculator.material.matrix.MatrixEngine;
 import com.xlythe.calculator.material.view.FormattedNumberEditText;
 import com.xlythe.calculator.material.view.MatrixComponent;
+import com.xlythe.math.Constants;
+
+import java.io.FileNotFoundException;
 
 /**
  * Adds graphing and base switching to the basic calculator.
  */
-public abstract class MatrixCalculator extends GraphingCalculator {
+public abstract class MatrixCalculator extends GraphingCalculator
+        implements CalculatorExpressionEvaluator.ProgressCallback {
+    private static final int REQUEST_IMPORT_CSV = 1;
 
     private FormattedNumberEditText mFormulaEditText;
+    private TextView mResultEditText;
 
     protected void initialize(Bundle savedInstanceState) {
         super.initialize(savedInstanceState);
         mFormulaEditText = (FormattedNumberEditText) findViewById(R.id.formula);
+        mResultEditText = (TextView) findViewById(R.id.result);
+        findViewById(R.id.matrix).setOnLongClickListener(this);
+
+        // Separates cells, and the arguments of solve(A,b)
+        ((TextView) findViewById(R.id.matrix_separator)).setText(String.valueOf(Constants.MATRIX_SEPARATOR));
+    }
+
+    @Override
+    public void onProgress(int percent) {
+        // Large matrices are solved in the background. Show how far along we are until the
+        // answer comes in.
+        mResultEditText.setText(getString(R.string.matrix_progress, percent));
     }
 
     @Override
@@ -48,4 +74,89 @@ public abstract class MatrixCalculator extends GraphingCalculator {
         }
         super.onButtonClick(view);
     }
+
+    @Override
+    public boolean onLongClick(View view) {
+        if (view.getId() == R.id.matrix) {
+            // Large matrices come from files, not from typing them in
+            Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("text/*");
+            startActivityForResult(Intent.createChooser(intent, getString(R.string.matrix_import)), REQUEST_IMPORT_CSV);
+            return true;
+        }
+        return super.onLongClick(view);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_CSV) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importCsv(data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    @Override
+    protected void onDestroy() {
+        // The callbacks would update views that are gone. A rotation loses the import, but
+        // the file can be picked again.
+        if (getEvaluator() != null) {
+            getEvaluator().getMatrixEngine().cancelImport();
+            getEvaluator().getMatrixEngine().cancel();
+        }
+        super.onDestroy();
+    }
+
+    private void importCsv(Uri uri) {
+        ParcelFileDescriptor descriptor;
+        try {
+            descriptor = getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            descriptor = null;
+        }
+        if (descriptor == null) {
+            Toast.makeText(this, R.string.matrix_import_error, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        getEvaluator().getMatrixEngine().importCsv(
+                new ParcelFileDescriptor.AutoCloseInputStream(descriptor),
+                MatrixEngine.toVariableName(getDisplayName(uri)),
+                new MatrixEngine.Callback() {
+                    @Override
+                    public void onProgress(int percent) {
+                        MatrixCalculator.this.onProgress(percent);
+                    }
+
+                    @Override
+                    public void onResult(String name) {
+                        mResultEditText.setText(null);
+                        insert(name);
+                    }
+
+                    @Override
+                    public void onError() {
+                        mResultEditText.setText(null);
+                        Toast.makeText(getBaseContext(), R.string.matrix_import_error, Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
+
+    private String getDisplayName(Uri uri) {
+        Cursor cursor = getContentResolver().query(uri, new String[] {OpenableColumns.DISPLAY_NAME}, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    return cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        String name = uri.getLastPathSegment();
+        return name == null ? "" : name;
+    }
 }
@@ -2,76 +2,113 @@ package com.xlythe.calculator.material;
 
 import com.xlythe.math.Base;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
 /**
- * Keeps track of the application wide number base, and manages the IDs of views to disable
- * when changing base.
+ * Keeps track of the application wide number base (any radix from 2 to 36), and manages the IDs
+ * of views to disable when changing base. The disabled views for every radix are worked out
+ * once, as a bitmask over getViewIds(), so switching bases doesn't allocate anything.
  */
 public class NumberBaseManager {
-    private Base mBase;
-    private Map<Base, Set<Integer>> mDisabledViewIds;
-    private Set<Integer> mBasicViewIds;
-    private Set<Integer> mHexViewIds;
+    public static final int MIN_RADIX = Character.MIN_RADIX;
+    public static final int MAX_RADIX = Character.MAX_RADIX;
+
+    // The digit buttons that some base might not allow, in order of the digit they type (2 to F)
+    private static final int[] DIGIT_IDS = {
+            R.id.digit_2, R.id.digit_3, R.id.digit_4, R.id.digit_5, R.id.digit_6, R.id.digit_7,
+            R.id.digit_8, R.id.digit_9, R.id.A, R.id.B, R.id.C, R.id.D, R.id.E, R.id.F};
+    private static final int FIRST_DIGIT = 2;
+
+    // Bitwise operators only make sense for the integer engine, which handles every base but 10
+    private static final int[] BITWISE_IDS = {
+            R.id.op_and, R.id.op_or, R.id.op_xor, R.id.op_not,
+            R.id.op_shift_left, R.id.op_shift_right};
 
-    public NumberBaseManager(Base base) {
-        mBase = base;
+    private static final int[] VIEW_IDS = new int[DIGIT_IDS.length + BITWISE_IDS.length];
+    private static final long[] DISABLED_MASKS = new long[MAX_RADIX + 1];
 
-        List<Integer> hexList =
-                Arrays.asList(R.id.A, R.id.B, R.id.C, R.id.D, R.id.E, R.id.F);
+    static {
+        System.arraycopy(DIGIT_IDS, 0, VIEW_IDS, 0, DIGIT_IDS.length);
+        System.arraycopy(BITWISE_IDS, 0, VIEW_IDS, DIGIT_IDS.length, BITWISE_IDS.length);
 
-        List<Integer> binaryList =
-                Arrays.asList(R.id.digit_2, R.id.digit_3, R.id.digit_4, R.id.digit_5, R.id.digit_6,
-                        R.id.digit_7, R.id.digit_8, R.id.digit_9);
+        for (int radix = MIN_RADIX; radix <= MAX_RADIX; radix++) {
+            long mask = 0;
+            for (int i = 0; i < DIGIT_IDS.length; i++) {
+                if (FIRST_DIGIT + i >= radix) {
+                    mask |= 1L << i;
+                }
+            }
+            if (radix == 10) {
+                for (int i = 0; i < BITWISE_IDS.length; i++) {
+                    mask |= 1L << (DIGIT_IDS.length + i);
+                }
+            }
+            DISABLED_MASKS[radix] = mask;
+        }
+    }
 
-        mDisabledViewIds = new HashMap<Base, Set<Integer>>();
-        mDisabledViewIds.put(Base.DECIMAL, new HashSet<Integer>(hexList));
-        Set<Integer> disabledForBinary = new HashSet<Integer>(binaryList);
-        disabledForBinary.addAll(hexList);
-        mDisabledViewIds.put(Base.BINARY, disabledForBinary);
-        mDisabledViewIds.put(Base.HEXADECIMAL, new HashSet<Integer>());
+    private int mRadix;
 
-        mBasicViewIds = new HashSet<Integer>();
-        mBasicViewIds.addAll(binaryList);
+    public NumberBaseManager(int radix) {
+        setRadix(radix);
+    }
 
-        mHexViewIds = new HashSet<Integer>();
-        mHexViewIds.addAll(hexList);
+    public int getRadix() {
+        return mRadix;
+    }
 
-        // setup default base
-        setNumberBase(mBase);
+    public void setRadix(int radix) {
+        if (radix < MIN_RADIX || radix > MAX_RADIX) {
+            throw new IllegalArgumentException("Unsupported radix " + radix);
+        }
+        mRadix = radix;
     }
 
+    /**
+     * @return the Solver's Base for the current radix, or null if only the integer engine
+     * understands it
+     */
     public Base getNumberBase() {
-        return mBase;
+        return toBase(mRadix);
     }
 
     public void setNumberBase(Base base) {
-        mBase = base;
+        setRadix(toRadix(base));
     }
 
     /**
-     * @return the set of view resource IDs managed by the enabled/disabled list
+     * @return the view resource IDs managed by the enabled/disabled mask. Do not modify.
      */
-    public Set<Integer> getViewIds() {
-        HashSet<Integer> set = new HashSet<Integer>();
-        set.addAll(mBasicViewIds);
-        set.addAll(mHexViewIds);
-        return set;
+    public int[] getViewIds() {
+        return VIEW_IDS;
     }
 
     /**
-     * return true if the given view is disabled based on the current base
-     *
-     * @param viewResId
-     * @return
+     * @return a mask where bit i is set if getViewIds()[i] is disabled in the current base
      */
-    public boolean isViewDisabled(int viewResId) {
-        Set<Integer> disabledSet = mDisabledViewIds.get(mBase);
-        return disabledSet.contains(viewResId);
+    public long getDisabledMask() {
+        return DISABLED_MASKS[mRadix];
+    }
+
+    public static Base toBase(int radix) {
+        switch (radix) {
+            case 2:
+                return Base.BINARY;
+            case 10:
+                return Base.DECIMAL;
+            case 16:
+                return Base.HEXADECIMAL;
+            default:
+                return null;
+        }
+    }
+
+    public static int toRadix(Base base) {
+        switch (base) {
+            case BINARY:
+                return 2;
+            case HEXADECIMAL:
+                return 16;
+            default:
+                return 10;
+        }
     }
 }
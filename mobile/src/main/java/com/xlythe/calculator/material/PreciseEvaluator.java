@@ -0,0 +1,469 @@
+package com.xlythe.calculator.material;
+
+import com.xlythe.math.Constants;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Evaluates plain arithmetic (+, -, ×, ÷, integer powers and factorials) either exactly, as a
+ * Rational, or with BigDecimal for when the double based Solver runs out of precision. Digits
+ * are only computed when asked for, and evaluation gives up once it runs past its time budget.
+ */
+public class PreciseEvaluator {
+    // Extra digits carried through the calculation so that rounding doesn't show in the output
+    private static final int GUARD_DIGITS = 5;
+    // Anything larger than this is rejected up front instead of burning the time budget
+    private static final int MAX_FACTORIAL = 10000;
+    private static final int MAX_EXPONENT = 100000;
+    // Fractions grow with every multiplication, so exact powers are kept much smaller
+    private static final int MAX_EXACT_EXPONENT = 1000;
+    // The exact value is computed in full before it's rounded for display
+    private static final int MAX_EXACT_FACTORIAL = 1000;
+    // BigInteger's pow() and multiply() can't be interrupted, so anything that would grow past
+    // this many bits is rejected before it's computed. 1000! is about 8500 bits.
+    private static final long MAX_EXACT_BITS = 65536;
+
+    private final long mTimeBudget;
+
+    /**
+     * @param timeBudget How long (in milliseconds) a single evaluation may take
+     */
+    public PreciseEvaluator(long timeBudget) {
+        mTimeBudget = timeBudget;
+    }
+
+    /**
+     * Parses the (normalized) expression. Returns null if it uses anything other than plain
+     * arithmetic, in which case the Solver should handle it.
+     */
+    public Result parse(String expr) {
+        try {
+            return new Result(new Parser(expr).parse());
+        } catch (UnsupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A parsed expression. Digits are computed lazily and remembered, so asking for fewer
+     * digits than were computed before is free.
+     */
+    public class Result {
+        private final Node mRoot;
+        private BigDecimal mValue;
+        private int mPrecision;
+        private Rational mExactValue;
+
+        private Result(Node root) {
+            mRoot = root;
+        }
+
+        /**
+         * Returns the value to (at least) the given number of significant digits, or null if
+         * it couldn't be calculated in time.
+         */
+        public BigDecimal getValue(int digits) {
+            if (mValue == null || mPrecision < digits) {
+                final MathContext mc = new MathContext(digits + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+                try {
+                    mValue = mRoot.evaluate(mc, System.currentTimeMillis() + mTimeBudget);
+                    mPrecision = digits;
+                } catch (UnsupportedException e) {
+                    return null;
+                }
+            }
+            return mValue.round(new MathContext(digits, RoundingMode.HALF_EVEN));
+        }
+
+        /**
+         * Returns the exact value as a fraction, or null if it couldn't be calculated in time.
+         */
+        public Rational getExactValue() {
+            if (mExactValue == null) {
+                try {
+                    mExactValue = mRoot.evaluateExact(System.currentTimeMillis() + mTimeBudget);
+                } catch (UnsupportedException e) {
+                    return null;
+                }
+            }
+            return mExactValue;
+        }
+
+        /**
+         * Formats the value with up to the given number of significant digits. Integers that fit
+         * are written out in full, everything else switches to scientific notation.
+         */
+        public String toString(int digits) {
+            BigDecimal value = getValue(digits);
+            return value == null ? null : format(value, digits);
+        }
+    }
+
+    /**
+     * Writes the value out in full if it has fewer than the given number of digits before
+     * the decimal point, or in scientific notation otherwise.
+     */
+    public static String format(BigDecimal value, int digits) {
+        value = value.stripTrailingZeros();
+        if (value.signum() == 0) {
+            return "0";
+        }
+
+        final int exponent = value.precision() - value.scale() - 1;
+        if (exponent >= -4 && exponent < digits) {
+            return value.toPlainString();
+        }
+
+        String mantissa = value.movePointLeft(exponent).toPlainString();
+        return mantissa + "e" + exponent;
+    }
+
+    /**
+     * Rounds the value until it's written in no more than lineLength characters, the way the
+     * Solver shortens its own answers.
+     */
+    public static String fit(BigDecimal value, int lineLength) {
+        String formatted = format(value, lineLength);
+        for (int digits = lineLength; digits > 0 && formatted.length() > lineLength; digits--) {
+            formatted = format(value.round(new MathContext(digits)), digits);
+        }
+        return formatted;
+    }
+
+    static class UnsupportedException extends Exception {
+        UnsupportedException(String message) {
+            super(message);
+        }
+    }
+
+    abstract static class Node {
+        abstract BigDecimal evaluate(MathContext mc, long deadline) throws UnsupportedException;
+
+        abstract Rational evaluateExact(long deadline) throws UnsupportedException;
+    }
+
+    static class NumberNode extends Node {
+        final BigDecimal mValue;
+
+        NumberNode(BigDecimal value) {
+            mValue = value;
+        }
+
+        @Override
+        BigDecimal evaluate(MathContext mc, long deadline) {
+            return mValue;
+        }
+
+        @Override
+        Rational evaluateExact(long deadline) {
+            return Rational.valueOf(mValue);
+        }
+    }
+
+    static class NegateNode extends Node {
+        final Node mChild;
+
+        NegateNode(Node child) {
+            mChild = child;
+        }
+
+        @Override
+        BigDecimal evaluate(MathContext mc, long deadline) throws UnsupportedException {
+            return mChild.evaluate(mc, deadline).negate();
+        }
+
+        @Override
+        Rational evaluateExact(long deadline) throws UnsupportedException {
+            return mChild.evaluateExact(deadline).negate();
+        }
+    }
+
+    static class BinaryNode extends Node {
+        final char mOperator;
+        final Node mLeft;
+        final Node mRight;
+
+        BinaryNode(char operator, Node left, Node right) {
+            mOperator = operator;
+            mLeft = left;
+            mRight = right;
+        }
+
+        @Override
+        BigDecimal evaluate(MathContext mc, long deadline) throws UnsupportedException {
+            final BigDecimal left = mLeft.evaluate(mc, deadline);
+            final BigDecimal right = mRight.evaluate(mc, deadline);
+            checkDeadline(deadline);
+            switch (mOperator) {
+                case '+':
+                    return left.add(right, mc);
+                case '-':
+                    return left.subtract(right, mc);
+                case '*':
+                    return left.multiply(right, mc);
+                case '/':
+                    if (right.signum() == 0) {
+                        // Let the Solver decide between Infinity, NaN and an error
+                        throw new UnsupportedException("Division by zero");
+                    }
+                    return left.divide(right, mc);
+                default:
+                    throw new UnsupportedException("Unknown operator " + mOperator);
+            }
+        }
+
+        @Override
+        Rational evaluateExact(long deadline) throws UnsupportedException {
+            final Rational left = mLeft.evaluateExact(deadline);
+            final Rational right = mRight.evaluateExact(deadline);
+            checkDeadline(deadline);
+            // Any of these can grow to about the size of both sides put together
+            checkBits(bitLength(left) + bitLength(right));
+            switch (mOperator) {
+                case '+':
+                    return left.add(right);
+                case '-':
+                    return left.subtract(right);
+                case '*':
+                    return left.multiply(right);
+                case '/':
+                    if (right.signum() == 0) {
+                        throw new UnsupportedException("Division by zero");
+                    }
+                    return left.divide(right);
+                default:
+                    throw new UnsupportedException("Unknown operator " + mOperator);
+            }
+        }
+    }
+
+    static class PowerNode extends Node {
+        final Node mBase;
+        final Node mExponent;
+
+        PowerNode(Node base, Node exponent) {
+            mBase = base;
+            mExponent = exponent;
+        }
+
+        @Override
+        BigDecimal evaluate(MathContext mc, long deadline) throws UnsupportedException {
+            final BigDecimal base = mBase.evaluate(mc, deadline);
+            final int exponent = toInt(mExponent.evaluate(mc, deadline), MAX_EXPONENT);
+            if (base.signum() == 0 && exponent < 0) {
+                throw new UnsupportedException("Division by zero");
+            }
+            checkDeadline(deadline);
+            return base.pow(exponent, mc);
+        }
+
+        @Override
+        Rational evaluateExact(long deadline) throws UnsupportedException {
+            final Rational base = mBase.evaluateExact(deadline);
+            final Rational exponent = mExponent.evaluateExact(deadline);
+            if (!exponent.isInteger()) {
+                // Roots are rarely rational
+                throw new UnsupportedException("Not an integer " + exponent);
+            }
+            final int n = toInt(new BigDecimal(exponent.getNumerator()), MAX_EXACT_EXPONENT);
+            if (base.signum() == 0 && n < 0) {
+                throw new UnsupportedException("Division by zero");
+            }
+            final long bits = Math.max(base.getNumerator().bitLength(), base.getDenominator().bitLength());
+            checkBits(bits * Math.abs(n));
+            checkDeadline(deadline);
+            return base.pow(n);
+        }
+    }
+
+    static class FactorialNode extends Node {
+        final Node mChild;
+
+        FactorialNode(Node child) {
+            mChild = child;
+        }
+
+        @Override
+        BigDecimal evaluate(MathContext mc, long deadline) throws UnsupportedException {
+            return new BigDecimal(factorial(toInt(mChild.evaluate(mc, deadline), MAX_FACTORIAL), deadline)).round(mc);
+        }
+
+        @Override
+        Rational evaluateExact(long deadline) throws UnsupportedException {
+            final Rational value = mChild.evaluateExact(deadline);
+            if (!value.isInteger()) {
+                throw new UnsupportedException("Not an integer " + value);
+            }
+            final int n = toInt(new BigDecimal(value.getNumerator()), MAX_EXACT_FACTORIAL);
+            // n! has fewer than n * log2(n) bits
+            checkBits((long) n * (32 - Integer.numberOfLeadingZeros(n)));
+            return Rational.valueOf(factorial(n, deadline));
+        }
+
+        private static BigInteger factorial(int n, long deadline) throws UnsupportedException {
+            if (n < 0) {
+                throw new UnsupportedException("Factorial of a negative number");
+            }
+
+            BigInteger result = BigInteger.ONE;
+            for (int i = 2; i <= n; i++) {
+                result = result.multiply(BigInteger.valueOf(i));
+                if ((i & 0xFF) == 0) {
+                    checkDeadline(deadline);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static int toInt(BigDecimal value, int max) throws UnsupportedException {
+        try {
+            int i = value.intValueExact();
+            if (Math.abs(i) > max) {
+                throw new UnsupportedException("Out of range " + value);
+            }
+            return i;
+        } catch (ArithmeticException e) {
+            throw new UnsupportedException("Not an integer " + value);
+        }
+    }
+
+    private static long bitLength(Rational value) {
+        return (long) value.getNumerator().bitLength() + value.getDenominator().bitLength();
+    }
+
+    private static void checkBits(long bits) throws UnsupportedException {
+        if (bits > MAX_EXACT_BITS) {
+            throw new UnsupportedException("Too big to calculate exactly");
+        }
+    }
+
+    private static void checkDeadline(long deadline) throws UnsupportedException {
+        if (System.currentTimeMillis() > deadline) {
+            throw new UnsupportedException("Out of time");
+        }
+    }
+
+    /**
+     * A recursive descent parser for the subset of expressions we can evaluate exactly.
+     */
+    static class Parser {
+        private final String mExpr;
+        private int mPosition;
+
+        Parser(String expr) {
+            mExpr = expr;
+        }
+
+        Node parse() throws UnsupportedException {
+            if (mExpr.isEmpty()) {
+                throw new UnsupportedException("Empty expression");
+            }
+            Node node = parseExpression();
+            if (mPosition != mExpr.length()) {
+                throw new UnsupportedException("Unexpected " + mExpr.charAt(mPosition));
+            }
+            return node;
+        }
+
+        private Node parseExpression() throws UnsupportedException {
+            Node node = parseTerm();
+            while (true) {
+                char c = peek();
+                if (c == '+' || c == Constants.PLUS) {
+                    mPosition++;
+                    node = new BinaryNode('+', node, parseTerm());
+                } else if (isMinus(c)) {
+                    mPosition++;
+                    node = new BinaryNode('-', node, parseTerm());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node parseTerm() throws UnsupportedException {
+            Node node = parseUnary();
+            while (true) {
+                char c = peek();
+                if (c == '*' || c == Constants.MUL) {
+                    mPosition++;
+                    node = new BinaryNode('*', node, parseUnary());
+                } else if (c == '/' || c == Constants.DIV) {
+                    mPosition++;
+                    node = new BinaryNode('/', node, parseUnary());
+                } else if (c == '(') {
+                    // Implicit multiplication, eg. 2(3)
+                    node = new BinaryNode('*', node, parseUnary());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node parseUnary() throws UnsupportedException {
+            if (isMinus(peek())) {
+                mPosition++;
+                return new NegateNode(parseUnary());
+            }
+            return parsePower();
+        }
+
+        private Node parsePower() throws UnsupportedException {
+            Node node = parsePostfix();
+            if (peek() == '^') {
+                mPosition++;
+                return new PowerNode(node, parseUnary());
+            }
+            return node;
+        }
+
+        private Node parsePostfix() throws UnsupportedException {
+            Node node = parsePrimary();
+            while (peek() == '!') {
+                mPosition++;
+                node = new FactorialNode(node);
+            }
+            return node;
+        }
+
+        private Node parsePrimary() throws UnsupportedException {
+            char c = peek();
+            if (c == '(') {
+                mPosition++;
+                Node node = parseExpression();
+                if (peek() == ')') {
+                    mPosition++;
+                } else if (mPosition != mExpr.length()) {
+                    throw new UnsupportedException("Unbalanced parenthesis");
+                }
+                return node;
+            }
+
+            final int start = mPosition;
+            while (mPosition < mExpr.length()
+                    && (Character.isDigit(mExpr.charAt(mPosition)) || mExpr.charAt(mPosition) == '.')) {
+                mPosition++;
+            }
+            if (start == mPosition) {
+                throw new UnsupportedException("Expected a number at " + start);
+            }
+            try {
+                return new NumberNode(new BigDecimal(mExpr.substring(start, mPosition)));
+            } catch (NumberFormatException e) {
+                throw new UnsupportedException("Invalid number " + mExpr.substring(start, mPosition));
+            }
+        }
+
+        private char peek() {
+            return mPosition < mExpr.length() ? mExpr.charAt(mPosition) : '\0';
+        }
+
+        private static boolean isMinus(char c) {
+            return c == '-' || c == Constants.MINUS;
+        }
+    }
+}
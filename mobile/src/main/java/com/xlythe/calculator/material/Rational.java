@@ -0,0 +1,115 @@
+package com.xlythe.calculator.material;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * An exact fraction, always kept in lowest terms with a positive denominator.
+ */
+public final class Rational {
+    public static final Rational ZERO = new Rational(BigInteger.ZERO, BigInteger.ONE);
+    public static final Rational ONE = new Rational(BigInteger.ONE, BigInteger.ONE);
+
+    private final BigInteger mNumerator;
+    private final BigInteger mDenominator;
+
+    public Rational(BigInteger numerator, BigInteger denominator) {
+        if (denominator.signum() == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (denominator.signum() < 0) {
+            numerator = numerator.negate();
+            denominator = denominator.negate();
+        }
+        BigInteger gcd = numerator.gcd(denominator);
+        if (!gcd.equals(BigInteger.ONE) && gcd.signum() != 0) {
+            numerator = numerator.divide(gcd);
+            denominator = denominator.divide(gcd);
+        }
+        mNumerator = numerator;
+        mDenominator = denominator;
+    }
+
+    public static Rational valueOf(BigInteger value) {
+        return new Rational(value, BigInteger.ONE);
+    }
+
+    public static Rational valueOf(BigDecimal value) {
+        if (value.scale() <= 0) {
+            return valueOf(value.toBigIntegerExact());
+        }
+        return new Rational(value.unscaledValue(), BigInteger.TEN.pow(value.scale()));
+    }
+
+    public BigInteger getNumerator() {
+        return mNumerator;
+    }
+
+    public BigInteger getDenominator() {
+        return mDenominator;
+    }
+
+    public boolean isInteger() {
+        return mDenominator.equals(BigInteger.ONE);
+    }
+
+    public int signum() {
+        return mNumerator.signum();
+    }
+
+    public Rational negate() {
+        return new Rational(mNumerator.negate(), mDenominator);
+    }
+
+    public Rational add(Rational other) {
+        if (mDenominator.equals(other.mDenominator)) {
+            return new Rational(mNumerator.add(other.mNumerator), mDenominator);
+        }
+        return new Rational(
+                mNumerator.multiply(other.mDenominator).add(other.mNumerator.multiply(mDenominator)),
+                mDenominator.multiply(other.mDenominator));
+    }
+
+    public Rational subtract(Rational other) {
+        return add(other.negate());
+    }
+
+    public Rational multiply(Rational other) {
+        return new Rational(mNumerator.multiply(other.mNumerator), mDenominator.multiply(other.mDenominator));
+    }
+
+    public Rational divide(Rational other) {
+        return new Rational(mNumerator.multiply(other.mDenominator), mDenominator.multiply(other.mNumerator));
+    }
+
+    public Rational pow(int exponent) {
+        if (exponent < 0) {
+            return new Rational(mDenominator.pow(-exponent), mNumerator.pow(-exponent));
+        }
+        return new Rational(mNumerator.pow(exponent), mDenominator.pow(exponent));
+    }
+
+    public BigDecimal toBigDecimal(MathContext mc) {
+        return new BigDecimal(mNumerator).divide(new BigDecimal(mDenominator), mc);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Rational)) {
+            return false;
+        }
+        Rational other = (Rational) o;
+        return mNumerator.equals(other.mNumerator) && mDenominator.equals(other.mDenominator);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mNumerator.hashCode() + mDenominator.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return isInteger() ? mNumerator.toString() : mNumerator + "/" + mDenominator;
+    }
+}
@@ -0,0 +1,131 @@
+package com.xlythe.calculator.material;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Wearable;
+import com.google.android.gms.wearable.WearableListenerService;
+import com.xlythe.calculator.material.matrix.MatrixEngine;
+import com.xlythe.calculator.material.matrix.MatrixException;
+import com.xlythe.math.Constants;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solves expressions for the watch, which hands us anything that would be slow on its own CPU.
+ *
+ * Requests look like "id\nexpression", with the expression in its normalized form. Replies
+ * look like "id\n=result", or "id\n!" if it couldn't be solved. Results are shortened to fit
+ * the watch's display.
+ *
+ * Everything is solved before onMessageReceived() returns. The service may be stopped as soon
+ * as it does, and an answer that arrives later would never be sent.
+ */
+public class WearEvaluationService extends WearableListenerService {
+    private static final String TAG = WearEvaluationService.class.getSimpleName();
+
+    // Must match the watch's WearableTransport
+    private static final String PATH_EVALUATE = "/calculator/evaluate";
+    private static final String PATH_RESULT = "/calculator/result";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long CONNECTION_TIMEOUT = 5;
+    // Must match the watch's CalculatorExpressionEvaluator
+    private static final int WATCH_LINE_LENGTH = 8;
+
+    private GoogleApiClient mClient;
+    private CalculatorExpressionTokenizer mTokenizer;
+    private CalculatorExpressionEvaluator mEvaluator;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mClient = new GoogleApiClient.Builder(this).addApi(Wearable.API).build();
+    }
+
+    @Override
+    public void onDestroy() {
+        mClient.disconnect();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (!PATH_EVALUATE.equals(messageEvent.getPath())) {
+            return;
+        }
+
+        String message = new String(messageEvent.getData(), UTF_8);
+        int newline = message.indexOf('\n');
+        if (newline == -1) {
+            Log.w(TAG, "Ignoring malformed request " + message);
+            return;
+        }
+        // Messages are delivered on a background thread, so it's fine to block here
+        if (!mClient.isConnected()
+                && !mClient.blockingConnect(CONNECTION_TIMEOUT, TimeUnit.SECONDS).isSuccess()) {
+            Log.w(TAG, "Couldn't connect to reply to the watch");
+            return;
+        }
+
+        final String id = message.substring(0, newline);
+        final String nodeId = messageEvent.getSourceNodeId();
+        String normalized = message.substring(newline + 1);
+
+        if (mEvaluator == null) {
+            Constants.rebuildConstants();
+            mTokenizer = new CalculatorExpressionTokenizer(this);
+            mEvaluator = new CalculatorExpressionEvaluator(mTokenizer);
+        }
+
+        if (mEvaluator.getMatrixEngine().isMatrixExpression(normalized)) {
+            // The MatrixEngine would answer on the main thread, after we've returned, so solve
+            // it here instead
+            try {
+                reply(nodeId, id + "\n=" + MatrixEngine.format(MatrixEngine.evaluateNow(normalized)));
+            } catch (MatrixException | RuntimeException | OutOfMemoryError e) {
+                reply(nodeId, id + "\n!");
+            }
+            return;
+        }
+
+        // The evaluator expects what the user would have typed here, so put it into our locale.
+        // Without matrices, it answers before evaluate() returns.
+        String expr = mTokenizer.getLocalizedExpression(normalized);
+        mEvaluator.evaluate(expr, new CalculatorExpressionEvaluator.EvaluateCallback() {
+            @Override
+            public void onEvaluate(String expr, String result, int errorResourceId) {
+                if (errorResourceId != Calculator.INVALID_RES_ID || result == null) {
+                    reply(nodeId, id + "\n!");
+                } else {
+                    reply(nodeId, id + "\n=" + fitToWatch(mTokenizer.getNormalizedExpression(result)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Rounds the (normalized) number until it fits on the watch. Our own answers can be 20
+     * digits long, which the watch's solver would never have shown.
+     */
+    private static String fitToWatch(String result) {
+        if (result.length() <= WATCH_LINE_LENGTH) {
+            return result;
+        }
+
+        BigDecimal value;
+        try {
+            value = new BigDecimal(result.replace(Constants.MINUS, '-'));
+        } catch (NumberFormatException e) {
+            return result;
+        }
+        String formatted = PreciseEvaluator.fit(value, WATCH_LINE_LENGTH);
+        return formatted.replace('-', Constants.MINUS);
+    }
+
+    private void reply(String nodeId, String message) {
+        Wearable.MessageApi.sendMessage(mClient, nodeId, PATH_RESULT, message.getBytes(UTF_8));
+    }
+}
@@ -3,6 +3,7 @@ package com.xlythe.calculator.material.floating;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
@@ -21,6 +22,7 @@ import com.xlythe.calculator.material.Calculator;
 import com.xlythe.calculator.material.CalculatorExpressionEvaluator;
 import com.xlythe.calculator.material.CalculatorExpressionTokenizer;
 import com.xlythe.calculator.material.Clipboard;
+import com.xlythe.calculator.material.HistoryRepository;
 import com.xlythe.calculator.material.R;
 import com.xlythe.calculator.material.view.BackspaceImageButton;
 import com.xlythe.calculator.material.view.CalculatorEditText;
@@ -28,20 +30,33 @@ import com.xlythe.math.Constants;
 import com.xlythe.math.EquationFormatter;
 import com.xlythe.math.History;
 import com.xlythe.math.HistoryEntry;
-import com.xlythe.math.Persist;
 import com.xlythe.math.Solver;
 import com.xlythe.view.floating.FloatingView;
 
+import org.javia.arity.SyntaxException;
+
 public class FloatingCalculator extends FloatingView {
     // Calc logic
     private ViewSwitcher mDisplay;
     private BackspaceImageButton mDelete;
     private ViewPager mPager;
-    private Persist mPersist;
+    private HistoryRepository mRepository;
+    private FloatingCalculatorPageAdapter mPageAdapter;
     private History mHistory;
     private CalculatorExpressionTokenizer mTokenizer;
     private CalculatorExpressionEvaluator mEvaluator;
     private State mState;
+    private Prewarm mPrewarm;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // The bubble is usually tapped a while after the service starts, so get the slow parts
+        // of opening the calculator out of the way now
+        mPrewarm = new Prewarm();
+        mPrewarm.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
     @NonNull
     @Override
@@ -71,15 +86,16 @@ public class FloatingCalculator extends FloatingView {
 
         final View child = LayoutInflater.from(getContext()).inflate(R.layout.floating_calculator, parent, false);
 
-        mTokenizer = new CalculatorExpressionTokenizer(this);
-        mEvaluator = new CalculatorExpressionEvaluator(mTokenizer);
+        if (mEvaluator == null) {
+            // Opened before the prewarm finished, so it's done here instead
+            mTokenizer = new CalculatorExpressionTokenizer(this);
+            mEvaluator = new CalculatorExpressionEvaluator(mTokenizer);
+        }
 
         mPager = (ViewPager) child.findViewById(R.id.panelswitch);
 
-        mPersist = new Persist(this);
-        mPersist.load();
-
-        mHistory = mPersist.getHistory();
+        mRepository = HistoryRepository.getInstance(this);
+        mHistory = mRepository.getHistory();
 
         mDisplay = (ViewSwitcher) child.findViewById(R.id.display);
         for (int i = 0; i < mDisplay.getChildCount(); i++) {
@@ -118,8 +134,8 @@ public class FloatingCalculator extends FloatingView {
                                 } else {
                                     setText(result);
                                 }
-                                if (saveHistory(expr, result)) {
-                                    RecyclerView history = (RecyclerView) child.findViewById(R.id.history);
+                                RecyclerView history = (RecyclerView) child.findViewById(R.id.history);
+                                if (saveHistory(expr, result) && history != null) {
                                     history.getLayoutManager().scrollToPosition(history.getAdapter().getItemCount() - 1);
                                 }
                             }
@@ -159,15 +175,21 @@ public class FloatingCalculator extends FloatingView {
                 getActiveEditText().insert(entry.getResult());
             }
         };
-        final FloatingCalculatorPageAdapter adapter = new FloatingCalculatorPageAdapter(
+        mPageAdapter = new FloatingCalculatorPageAdapter(
                 getContext(), onClickListener, historyItemCallback, mEvaluator.getSolver(), mHistory);
-        mPager.setAdapter(adapter);
+        mPager.setAdapter(mPageAdapter);
         mPager.setCurrentItem(1);
         mPager.addOnPageChangeListener(new ViewPager.OnPageChangeListener() {
             private int mActivePage = -1;
 
             @Override
             public void onPageScrolled(int i, float v, int i1) {
+                // The side panels are about to be seen, so they can't wait any longer. The pager
+                // also reports a scroll with no offset when it's first laid out, which is ignored.
+                if (v != 0) {
+                    mPageAdapter.inflatePages();
+                }
+
                 // We're scrolling, so enable everything
                 if (mActivePage != -1) {
                     mActivePage = -1;
@@ -177,6 +199,8 @@ public class FloatingCalculator extends FloatingView {
 
             @Override
             public void onPageSelected(int i) {
+                mPageAdapter.inflatePages();
+
                 // We've landed on a page, so disable all pages but this one
                 mActivePage = i;
                 setActivePage(mActivePage);
@@ -192,8 +216,8 @@ public class FloatingCalculator extends FloatingView {
             }
 
             private void setActivePage(int page) {
-                for (int i = 0; i < adapter.getCount(); i++) {
-                    adapter.setEnabled(adapter.getViewAt(i), page == -1 || i == page);
+                for (int i = 0; i < mPageAdapter.getCount(); i++) {
+                    mPageAdapter.setEnabled(mPageAdapter.getViewAt(i), page == -1 || i == page);
                 }
             }
         });
@@ -226,8 +250,19 @@ public class FloatingCalculator extends FloatingView {
 
     @Override
     public void onHide() {
-        if (mPersist != null) {
-            mPersist.save();
+        if (mRepository != null) {
+            mRepository.flush();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mPrewarm != null) {
+            mPrewarm.cancel(false);
+        }
+        if (mPageAdapter != null) {
+            mPageAdapter.release();
         }
     }
 
@@ -299,7 +334,7 @@ public class FloatingCalculator extends FloatingView {
             expr = EquationFormatter.appendParenthesis(expr);
             expr = Solver.clean(expr);
             expr = mTokenizer.getLocalizedExpression(expr);
-            mHistory.enter(expr, result);
+            mRepository.enter(expr, result);
             return true;
         }
         return false;
@@ -308,4 +343,35 @@ public class FloatingCalculator extends FloatingView {
     private enum State {
         DELETE, CLEAR, ERROR
     }
+
+    /**
+     * Reads the history and builds a solver in the background, warming it up with a throwaway
+     * equation so that the first real one doesn't pay for loading Arity's classes.
+     */
+    private class Prewarm extends AsyncTask<Void, Void, CalculatorExpressionEvaluator> {
+        private CalculatorExpressionTokenizer mPrewarmTokenizer;
+
+        @Override
+        protected CalculatorExpressionEvaluator doInBackground(Void... params) {
+            HistoryRepository.getInstance(FloatingCalculator.this).getHistory();
+
+            mPrewarmTokenizer = new CalculatorExpressionTokenizer(FloatingCalculator.this);
+            CalculatorExpressionEvaluator evaluator = new CalculatorExpressionEvaluator(mPrewarmTokenizer);
+            try {
+                evaluator.getSolver().solve("1+1");
+            } catch (SyntaxException e) {
+                // Only here to load classes, so the answer doesn't matter
+            }
+            return evaluator;
+        }
+
+        @Override
+        protected void onPostExecute(CalculatorExpressionEvaluator evaluator) {
+            mPrewarm = null;
+            if (mEvaluator == null) {
+                mTokenizer = mPrewarmTokenizer;
+                mEvaluator = evaluator;
+            }
+        }
+    }
 }
@@ -8,8 +8,10 @@ import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.ImageButton;
 
+import com.xlythe.calculator.material.HistoryRepository;
 import com.xlythe.calculator.material.R;
 import com.xlythe.calculator.material.view.SolidLayout;
 import com.xlythe.calculator.material.view.SolidPadLayout;
@@ -24,6 +26,8 @@ public class FloatingCalculatorPageAdapter extends PagerAdapter {
     private final Solver mSolver;
     private final History mHistory;
     private final View[] mViews = new View[3];
+    private final boolean[] mInflated = new boolean[3];
+    private History.Observer mHistoryObserver;
 
     public FloatingCalculatorPageAdapter(
             Context context,
@@ -62,6 +66,7 @@ public class FloatingCalculatorPageAdapter extends PagerAdapter {
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
         if (mViews[position] != null) mViews[position] = null;
+        mInflated[position] = false;
         container.removeView((View) object);
     }
 
@@ -85,32 +90,55 @@ public class FloatingCalculatorPageAdapter extends PagerAdapter {
 
     public View getViewAt(int position) {
         if (mViews[position] != null) return mViews[position];
+        if (position == 1) {
+            mViews[position] = inflatePage(position);
+        } else {
+            // The side panels can't be seen until the user swipes, so only an empty frame is
+            // made for them now. See inflatePages().
+            mViews[position] = new FrameLayout(mContext);
+        }
+        return mViews[position];
+    }
+
+    /**
+     * Fills in the panels that were skipped while opening. Call when the user starts swiping.
+     */
+    public void inflatePages() {
+        for (int i = 0; i < mViews.length; i++) {
+            if (mViews[i] != null && !mInflated[i]) {
+                ((ViewGroup) mViews[i]).addView(inflatePage(i));
+            }
+        }
+    }
+
+    private View inflatePage(int position) {
+        mInflated[position] = true;
+        View view = null;
         switch (position) {
             case 0:
-                mViews[position] = View.inflate(mContext, R.layout.floating_calculator_history, null);
-                RecyclerView historyView =
-                        (RecyclerView) mViews[position].findViewById(R.id.history);
+                view = View.inflate(mContext, R.layout.floating_calculator_history, null);
+                RecyclerView historyView = (RecyclerView) view.findViewById(R.id.history);
                 setUpHistory(historyView);
 
                 // This is the first time loading the history panel -- disable it until the user moves to it
-                setEnabled(mViews[position], false);
+                setEnabled(view, false);
                 break;
             case 1:
-                mViews[position] = View.inflate(mContext, R.layout.floating_calculator_basic, null);
+                view = View.inflate(mContext, R.layout.floating_calculator_basic, null);
 
-                Button dot = (Button) mViews[position].findViewById(R.id.dec_point);
+                Button dot = (Button) view.findViewById(R.id.dec_point);
                 dot.setText(String.valueOf(Constants.DECIMAL_POINT));
 
                 break;
             case 2:
-                mViews[position] = View.inflate(mContext, R.layout.floating_calculator_advanced, null);
+                view = View.inflate(mContext, R.layout.floating_calculator_advanced, null);
 
                 // This is the first time loading the advanced panel -- disable it until the user moves to it
-                setEnabled(mViews[position], false);
+                setEnabled(view, false);
                 break;
         }
-        applyListener(mViews[position]);
-        return mViews[position];
+        applyListener(view);
+        return view;
     }
 
     private void applyListener(View view) {
@@ -145,14 +173,25 @@ public class FloatingCalculatorPageAdapter extends PagerAdapter {
         historyView.setLayoutManager(layoutManager);
 
         final FloatingHistoryAdapter historyAdapter = new FloatingHistoryAdapter(mContext, mSolver, mHistory, mHistoryCallback);
-        mHistory.setObserver(new History.Observer() {
+        mHistoryObserver = new History.Observer() {
             @Override
             public void notifyDataSetChanged() {
                 historyAdapter.notifyDataSetChanged();
             }
-        });
+        };
+        HistoryRepository.getInstance(mContext).addObserver(mHistoryObserver);
         historyView.setAdapter(historyAdapter);
 
         layoutManager.scrollToPosition(historyAdapter.getItemCount() - 1);
     }
+
+    /**
+     * Stops listening to the shared history. Call once the adapter is no longer shown.
+     */
+    public void release() {
+        if (mHistoryObserver != null) {
+            HistoryRepository.getInstance(mContext).removeObserver(mHistoryObserver);
+            mHistoryObserver = null;
+        }
+    }
 }
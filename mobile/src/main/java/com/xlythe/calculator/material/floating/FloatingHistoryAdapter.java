@@ -17,7 +17,6 @@ package com.xlythe.calculator.material.floating;
 
 import android.content.Context;
 import android.support.v7.widget.RecyclerView;
-import android.text.Html;
 import android.text.Spanned;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -25,8 +24,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.xlythe.calculator.material.R;
-import com.xlythe.math.Constants;
-import com.xlythe.math.EquationFormatter;
+import com.xlythe.calculator.material.util.FormattedTextCache;
 import com.xlythe.math.History;
 import com.xlythe.math.HistoryEntry;
 import com.xlythe.math.Solver;
@@ -37,14 +35,14 @@ class FloatingHistoryAdapter extends RecyclerView.Adapter<FloatingHistoryAdapter
     private final Context mContext;
     private final Solver mSolver;
     private final List<HistoryEntry> mEntries;
-    private final EquationFormatter mEquationFormatter;
+    private final FormattedTextCache mFormattedTextCache;
     protected HistoryItemCallback mCallback;
 
     public FloatingHistoryAdapter(Context context, Solver solver, History history, HistoryItemCallback callback) {
         mContext = context;
         mSolver = solver;
         mEntries = history.getEntries();
-        mEquationFormatter = new EquationFormatter();
+        mFormattedTextCache = new FormattedTextCache(solver);
         mCallback = callback;
     }
 
@@ -90,16 +88,7 @@ class FloatingHistoryAdapter extends RecyclerView.Adapter<FloatingHistoryAdapter
     }
 
     protected Spanned formatText(String text) {
-        if (text == null) {
-            return null;
-        }
-
-        if (text.matches(".*\\de[-" + Constants.MINUS + "]?\\d.*")) {
-            text = text.replace("e", Constants.MUL + "10^");
-        }
-        return Html.fromHtml(
-                mEquationFormatter.insertSupScripts(
-                        mEquationFormatter.addComas(mSolver, text)));
+        return mFormattedTextCache.get(text);
     }
 
     public Context getContext() {
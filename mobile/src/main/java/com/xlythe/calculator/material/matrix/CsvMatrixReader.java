@@ -0,0 +1,420 @@
+package com.xlythe.calculator.material.matrix;
+
+import org.ejml.data.DenseMatrix64F;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a CSV file of numbers into a matrix. The file is memory mapped (or read into memory,
+ * if it can't be mapped) and split into chunks at line boundaries, which are parsed in
+ * parallel straight from the bytes into the matrix's double[]. No Strings are created per cell.
+ *
+ * Cells may be separated by commas, semicolons or tabs. A first line that doesn't start with
+ * a number is treated as a header and skipped.
+ */
+final class CsvMatrixReader {
+    // Smaller files aren't worth splitting across threads
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    // Exactly representable powers of ten, for parsing without Math.pow
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // The most significant digits a long can hold without overflowing
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    // The most significant digits a double holds exactly. Beyond this, multiplying by a power
+    // of ten could round twice.
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private CsvMatrixReader() {}
+
+    static DenseMatrix64F read(FileChannel channel, Monitor monitor) throws IOException, MatrixException {
+        ByteBuffer buffer = map(channel);
+        if (buffer == null) {
+            buffer = readFully(channel, monitor);
+        }
+        final int size = buffer.limit();
+        if (size == 0) {
+            throw new MatrixException("Empty file");
+        }
+
+        final int start = skipHeader(buffer);
+        final int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                (int) ((size - start) / MIN_CHUNK_SIZE)));
+        final int[] bounds = split(buffer, start, threads);
+        final int chunks = bounds.length - 1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Pass 1: count rows per chunk, so every chunk knows where its rows go
+            List<Future<int[]>> counts = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) {
+                counts.add(executor.submit(new CountTask(buffer.duplicate(), bounds[i], bounds[i + 1])));
+            }
+            final int[] firstRows = new int[chunks + 1];
+            int columns = -1;
+            for (int i = 0; i < chunks; i++) {
+                int[] count = get(counts.get(i));
+                firstRows[i + 1] = firstRows[i] + count[0];
+                if (columns == -1) {
+                    columns = count[1];
+                }
+            }
+            final int rows = firstRows[chunks];
+            if (rows == 0 || columns <= 0) {
+                throw new MatrixException("No numbers in file");
+            }
+            if ((long) rows * columns > Integer.MAX_VALUE) {
+                throw new MatrixException("File too large");
+            }
+            MatrixKernels.checkCancelled(monitor);
+
+            // Pass 2: parse every chunk directly into its slice of the backing array
+            final DenseMatrix64F matrix = new DenseMatrix64F(rows, columns);
+            List<Future<Void>> parses = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) {
+                parses.add(executor.submit(new ParseTask(buffer.duplicate(), bounds[i], bounds[i + 1],
+                        matrix.data, firstRows[i] * columns, columns, monitor)));
+            }
+            for (int i = 0; i < chunks; i++) {
+                get(parses.get(i));
+                monitor.onProgress(i + 1, chunks);
+            }
+            return matrix;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Maps the whole file, or returns null if it can't be mapped. Pipes and some content
+     * providers hand out channels with no size that can't be mapped.
+     */
+    private static MappedByteBuffer map(FileChannel channel) throws MatrixException {
+        final long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            return null;
+        }
+        if (size == 0) {
+            // Either empty or a stream, which reading it will tell
+            return null;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new MatrixException("File too large");
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the channel from start to end into memory, for when it can't be mapped.
+     */
+    private static ByteBuffer readFully(FileChannel channel, Monitor monitor) throws IOException, MatrixException {
+        ByteBuffer buffer = ByteBuffer.allocate(MIN_CHUNK_SIZE);
+        while (channel.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() > Integer.MAX_VALUE / 2) {
+                    throw new MatrixException("File too large");
+                }
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+                MatrixKernels.checkCancelled(monitor);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static <T> T get(Future<T> future) throws MatrixException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MatrixException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MatrixException) {
+                throw (MatrixException) e.getCause();
+            }
+            throw new MatrixException(String.valueOf(e.getCause()));
+        }
+    }
+
+    private static int skipHeader(ByteBuffer buffer) {
+        int i = 0;
+        final int limit = buffer.limit();
+        // Skip a UTF-8 byte order mark
+        if (limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+            i = 3;
+        }
+        final int lineStart = i;
+        while (i < limit && (buffer.get(i) == ' ' || buffer.get(i) == '"')) {
+            i++;
+        }
+        if (i < limit && !isNumberStart(buffer.get(i))) {
+            return nextLine(buffer, i);
+        }
+        return lineStart;
+    }
+
+    /**
+     * Splits [start, limit) into roughly equal chunks that each begin at the start of a line.
+     */
+    private static int[] split(ByteBuffer buffer, int start, int chunks) {
+        final int limit = buffer.limit();
+        List<Integer> bounds = new ArrayList<>(chunks + 1);
+        bounds.add(start);
+        for (int i = 1; i < chunks; i++) {
+            int bound = nextLine(buffer, Math.max(bounds.get(bounds.size() - 1),
+                    start + (int) ((long) (limit - start) * i / chunks)));
+            if (bound > bounds.get(bounds.size() - 1) && bound < limit) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(limit);
+
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static int nextLine(ByteBuffer buffer, int position) {
+        final int limit = buffer.limit();
+        while (position < limit && buffer.get(position++) != '\n') {
+            // Keep looking
+        }
+        return position;
+    }
+
+    private static boolean isNumberStart(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.';
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == ';' || b == '\t';
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '"' || b == '\r';
+    }
+
+    /**
+     * Counts the non-blank lines in a chunk, and the cells in its first line.
+     */
+    private static class CountTask implements Callable<int[]> {
+        private final ByteBuffer mBuffer;
+        private final int mStart;
+        private final int mEnd;
+
+        CountTask(ByteBuffer buffer, int start, int end) {
+            mBuffer = buffer;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public int[] call() {
+            int rows = 0;
+            int columns = -1;
+            int cells = 1;
+            boolean blank = true;
+            for (int i = mStart; i < mEnd; i++) {
+                final byte b = mBuffer.get(i);
+                if (b == '\n') {
+                    if (!blank) {
+                        rows++;
+                        if (columns == -1) {
+                            columns = cells;
+                        }
+                    }
+                    cells = 1;
+                    blank = true;
+                } else if (isSeparator(b)) {
+                    cells++;
+                } else if (!isBlank(b)) {
+                    blank = false;
+                }
+            }
+            if (!blank) {
+                rows++;
+                if (columns == -1) {
+                    columns = cells;
+                }
+            }
+            return new int[] {rows, columns};
+        }
+    }
+
+    private static class ParseTask implements Callable<Void> {
+        // How many rows to parse between checks for cancellation
+        private static final int CHECK_INTERVAL = 1024;
+
+        private final ByteBuffer mBuffer;
+        private final int mEnd;
+        private final double[] mData;
+        private final int mColumns;
+        private final Monitor mMonitor;
+        private int mPosition;
+        private int mIndex;
+
+        ParseTask(ByteBuffer buffer, int start, int end, double[] data, int offset, int columns, Monitor monitor) {
+            mBuffer = buffer;
+            mPosition = start;
+            mEnd = end;
+            mData = data;
+            mIndex = offset;
+            mColumns = columns;
+            mMonitor = monitor;
+        }
+
+        @Override
+        public Void call() throws MatrixException {
+            int rows = 0;
+            while (mPosition < mEnd) {
+                if (isBlankLine()) {
+                    mPosition = nextLine(mBuffer, mPosition);
+                    continue;
+                }
+
+                for (int column = 0; column < mColumns; column++) {
+                    if (column != 0) {
+                        skipBlanks();
+                        if (mPosition >= mEnd || !isSeparator(mBuffer.get(mPosition))) {
+                            throw new MatrixException("Row has too few cells");
+                        }
+                        mPosition++;
+                    }
+                    skipBlanks();
+                    mData[mIndex++] = parseNumber();
+                }
+                skipBlanks();
+                if (mPosition < mEnd && mBuffer.get(mPosition) != '\n') {
+                    throw new MatrixException("Row has too many cells");
+                }
+                mPosition++;
+
+                if (++rows % CHECK_INTERVAL == 0) {
+                    MatrixKernels.checkCancelled(mMonitor);
+                }
+            }
+            return null;
+        }
+
+        private boolean isBlankLine() {
+            for (int i = mPosition; i < mEnd; i++) {
+                final byte b = mBuffer.get(i);
+                if (b == '\n') {
+                    return true;
+                }
+                if (!isBlank(b)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipBlanks() {
+            while (mPosition < mEnd && isBlank(mBuffer.get(mPosition))) {
+                mPosition++;
+            }
+        }
+
+        /**
+         * Parses a decimal number, like -1.5e-3, into a double without creating a String.
+         * Falls back to Double.parseDouble for mantissas too long to be exact in a double.
+         */
+        private double parseNumber() throws MatrixException {
+            final int start = mPosition;
+            boolean negative = false;
+            if (mPosition < mEnd && (mBuffer.get(mPosition) == '-' || mBuffer.get(mPosition) == '+')) {
+                negative = mBuffer.get(mPosition) == '-';
+                mPosition++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean seenDigit = false;
+            boolean seenPoint = false;
+            while (mPosition < mEnd) {
+                final byte b = mBuffer.get(mPosition);
+                if (b >= '0' && b <= '9') {
+                    seenDigit = true;
+                    if (digits < MAX_MANTISSA_DIGITS) {
+                        if (mantissa != 0 || b != '0') {
+                            digits++;
+                        }
+                        mantissa = mantissa * 10 + (b - '0');
+                        if (seenPoint) {
+                            exponent--;
+                        }
+                    } else if (!seenPoint) {
+                        // Too many digits to keep, but they still count towards the magnitude
+                        exponent++;
+                    }
+                } else if (b == '.' && !seenPoint) {
+                    seenPoint = true;
+                } else {
+                    break;
+                }
+                mPosition++;
+            }
+            if (!seenDigit) {
+                throw new MatrixException("Expected a number at " + start);
+            }
+
+            if (mPosition < mEnd && (mBuffer.get(mPosition) == 'e' || mBuffer.get(mPosition) == 'E')) {
+                mPosition++;
+                boolean negativeExponent = false;
+                if (mPosition < mEnd && (mBuffer.get(mPosition) == '-' || mBuffer.get(mPosition) == '+')) {
+                    negativeExponent = mBuffer.get(mPosition) == '-';
+                    mPosition++;
+                }
+                int value = 0;
+                boolean seenExponentDigit = false;
+                while (mPosition < mEnd && mBuffer.get(mPosition) >= '0' && mBuffer.get(mPosition) <= '9') {
+                    value = Math.min(value * 10 + (mBuffer.get(mPosition) - '0'), 10000);
+                    seenExponentDigit = true;
+                    mPosition++;
+                }
+                if (!seenExponentDigit) {
+                    throw new MatrixException("Invalid exponent at " + start);
+                }
+                exponent += negativeExponent ? -value : value;
+            }
+
+            if (digits > MAX_EXACT_DIGITS || Math.abs(exponent) >= POWERS_OF_TEN.length) {
+                // Rare enough that a String is fine, and Double.parseDouble rounds correctly
+                char[] chars = new char[mPosition - start];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) mBuffer.get(start + i);
+                }
+                return Double.parseDouble(new String(chars));
+            }
+            final double value = exponent < 0
+                    ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+    }
+}
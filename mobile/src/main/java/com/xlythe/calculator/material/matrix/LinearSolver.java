@@ -0,0 +1,275 @@
+package com.xlythe.calculator.material.matrix;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+/**
+ * Solves Ax = b without forming the inverse of A. Square systems go through LU, and everything
+ * else is solved in the least squares sense through a Householder QR, which is both faster and
+ * more accurate than inverse(A)×b.
+ */
+final class LinearSolver {
+    // Relative size below which a diagonal entry of R is treated as zero
+    private static final double RANK_TOLERANCE = 1e-12;
+
+    private LinearSolver() {}
+
+    /**
+     * Solves Ax = b, where b may have several columns. Square A is solved exactly, and
+     * rectangular A in the least squares sense.
+     */
+    static Value solve(Value a, Value b, Monitor monitor) throws MatrixException {
+        if (a.isSparse() && a.getSparseMatrix().numRows == a.getSparseMatrix().numCols) {
+            return new Value(solveSparse(a.getSparseMatrix(), b.getMatrix(), monitor));
+        }
+        DenseMatrix64F matrix = a.getMatrix();
+        if (matrix.numRows != matrix.numCols) {
+            return new Value(leastSquares(matrix, b.getMatrix(), monitor));
+        }
+        return new Value(solve(matrix, b.getMatrix(), monitor));
+    }
+
+    static DenseMatrix64F solve(DenseMatrix64F a, final DenseMatrix64F b, Monitor monitor) throws MatrixException {
+        MatrixKernels.requireSquare(a);
+        requireRows(a, b);
+        if (!MatrixKernels.isLarge(a)) {
+            DenseMatrix64F x = new DenseMatrix64F(a.numCols, b.numCols);
+            if (!CommonOps.solve(a, b, x) || hasNaN(x)) {
+                throw new MatrixException("Singular matrix");
+            }
+            return x;
+        }
+
+        final int n = a.numRows;
+        final int columns = b.numCols;
+        final DenseMatrix64F lu = a.copy();
+        final int[] pivots = new int[n];
+        if (MatrixKernels.decompose(lu, pivots, monitor, 2) == 0) {
+            throw new MatrixException("Singular matrix");
+        }
+        MatrixKernels.checkCancelled(monitor);
+
+        // Every right hand side is independent, so they're split across cores
+        final DenseMatrix64F x = new DenseMatrix64F(n, columns);
+        MatrixKernels.parallelFor(0, columns, 1, new MatrixKernels.RangeTask() {
+            @Override
+            public void run(int start, int end) {
+                double[] column = new double[n];
+                for (int j = start; j < end; j++) {
+                    for (int i = 0; i < n; i++) {
+                        column[i] = b.data[pivots[i] * columns + j];
+                    }
+                    MatrixKernels.substitute(lu, column);
+                    for (int i = 0; i < n; i++) {
+                        x.data[i * columns + j] = column[i];
+                    }
+                }
+            }
+        });
+        monitor.onProgress(1, 1);
+        return x;
+    }
+
+    /**
+     * Finds the x that minimizes |Ax - b|. When there are more unknowns than equations, the
+     * solution with the smallest |x| is returned.
+     */
+    static DenseMatrix64F leastSquares(DenseMatrix64F a, DenseMatrix64F b, Monitor monitor) throws MatrixException {
+        requireRows(a, b);
+        if (a.numRows >= a.numCols) {
+            Householder qr = new Householder(a.copy(), monitor);
+            DenseMatrix64F qtb = b.copy();
+            qr.applyTransposeQ(qtb);
+            return qr.solveR(qtb);
+        }
+
+        // A^T = QR, so A = R^T Q^T, and the smallest x is Q [R^-T b; 0]
+        Householder qr = new Householder(MatrixKernels.transpose(a), monitor);
+        DenseMatrix64F y = qr.solveTransposeR(b);
+        DenseMatrix64F x = new DenseMatrix64F(a.numCols, b.numCols);
+        System.arraycopy(y.data, 0, x.data, 0, y.getNumElements());
+        qr.applyQ(x);
+        return x;
+    }
+
+    private static DenseMatrix64F solveSparse(SparseMatrix a, DenseMatrix64F b, Monitor monitor) throws MatrixException {
+        if (b.numRows != a.numRows) {
+            throw new MatrixException("Mismatched sizes");
+        }
+        final int columns = b.numCols;
+        DenseMatrix64F x = new DenseMatrix64F(a.numCols, columns);
+        double[] column = new double[b.numRows];
+        for (int j = 0; j < columns; j++) {
+            for (int i = 0; i < column.length; i++) {
+                column[i] = b.data[i * columns + j];
+            }
+            double[] solution = a.solve(column, monitor);
+            for (int i = 0; i < solution.length; i++) {
+                x.data[i * columns + j] = solution[i];
+            }
+        }
+        return x;
+    }
+
+    private static void requireRows(DenseMatrix64F a, DenseMatrix64F b) throws MatrixException {
+        if (a.numRows != b.numRows) {
+            throw new MatrixException("Mismatched sizes");
+        }
+    }
+
+    private static boolean hasNaN(DenseMatrix64F x) {
+        for (int i = 0; i < x.getNumElements(); i++) {
+            if (Double.isNaN(x.data[i]) || Double.isInfinite(x.data[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A Householder QR decomposition of an m×n matrix, m >= n, done in place. The reflectors
+     * are kept below the diagonal (with their first element on it), and R's diagonal is kept
+     * separately. Each reflector is applied to the remaining columns in parallel.
+     */
+    private static class Householder {
+        private final DenseMatrix64F mQr;
+        private final double[] mDiagonal;
+        private final double[] mTaus;
+        private final Monitor mMonitor;
+
+        Householder(DenseMatrix64F a, Monitor monitor) throws MatrixException {
+            mQr = a;
+            mDiagonal = new double[a.numCols];
+            mTaus = new double[a.numCols];
+            mMonitor = monitor;
+            decompose();
+        }
+
+        private void decompose() throws MatrixException {
+            final int m = mQr.numRows;
+            final int n = mQr.numCols;
+            final double[] data = mQr.data;
+            double largest = 0;
+            for (int k = 0; k < n; k++) {
+                if (k % MatrixKernels.BLOCK_SIZE == 0) {
+                    MatrixKernels.checkCancelled(mMonitor);
+                    mMonitor.onProgress(k, 2 * n);
+                }
+
+                // Scale to avoid overflow while taking the column's norm
+                double scale = 0;
+                for (int i = k; i < m; i++) {
+                    scale = Math.max(scale, Math.abs(data[i * n + k]));
+                }
+                double norm = 0;
+                if (scale != 0) {
+                    for (int i = k; i < m; i++) {
+                        final double value = data[i * n + k] / scale;
+                        norm += value * value;
+                    }
+                    norm = scale * Math.sqrt(norm);
+                }
+
+                final double alpha = data[k * n + k] > 0 ? -norm : norm;
+                largest = Math.max(largest, norm);
+                if (norm == 0 || norm <= RANK_TOLERANCE * largest) {
+                    throw new MatrixException("Matrix doesn't have full rank");
+                }
+                mDiagonal[k] = alpha;
+                data[k * n + k] -= alpha;
+                final double tau = -1 / (alpha * data[k * n + k]);
+                mTaus[k] = tau;
+
+                applyReflector(k, data, n, k + 1, n);
+            }
+        }
+
+        /**
+         * Applies reflector k to columns [from, to) of the row major m×columns array target.
+         */
+        private void applyReflector(final int k, final double[] target, final int columns, int from, int to) throws MatrixException {
+            final int m = mQr.numRows;
+            final int n = mQr.numCols;
+            final double[] v = mQr.data;
+            final double tau = mTaus[k];
+            MatrixKernels.parallelFor(from, to, MatrixKernels.BLOCK_SIZE, new MatrixKernels.RangeTask() {
+                @Override
+                public void run(int start, int end) {
+                    for (int j = start; j < end; j++) {
+                        double sum = 0;
+                        for (int i = k; i < m; i++) {
+                            sum += v[i * n + k] * target[i * columns + j];
+                        }
+                        sum *= tau;
+                        if (sum == 0) {
+                            continue;
+                        }
+                        for (int i = k; i < m; i++) {
+                            target[i * columns + j] -= sum * v[i * n + k];
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Replaces b with Q^T b.
+         */
+        void applyTransposeQ(DenseMatrix64F b) throws MatrixException {
+            for (int k = 0; k < mQr.numCols; k++) {
+                applyReflector(k, b.data, b.numCols, 0, b.numCols);
+            }
+        }
+
+        /**
+         * Replaces b with Q b.
+         */
+        void applyQ(DenseMatrix64F b) throws MatrixException {
+            for (int k = mQr.numCols - 1; k >= 0; k--) {
+                applyReflector(k, b.data, b.numCols, 0, b.numCols);
+            }
+        }
+
+        /**
+         * Solves R x = the first n rows of qtb.
+         */
+        DenseMatrix64F solveR(DenseMatrix64F qtb) {
+            final int n = mQr.numCols;
+            final int columns = qtb.numCols;
+            final double[] r = mQr.data;
+            DenseMatrix64F x = new DenseMatrix64F(n, columns);
+            for (int j = 0; j < columns; j++) {
+                for (int i = n - 1; i >= 0; i--) {
+                    double sum = qtb.data[i * columns + j];
+                    for (int k = i + 1; k < n; k++) {
+                        sum -= r[i * n + k] * x.data[k * columns + j];
+                    }
+                    x.data[i * columns + j] = sum / mDiagonal[i];
+                }
+            }
+            mMonitor.onProgress(1, 1);
+            return x;
+        }
+
+        /**
+         * Solves R^T y = b, where b has n rows.
+         */
+        DenseMatrix64F solveTransposeR(DenseMatrix64F b) {
+            final int n = mQr.numCols;
+            final int columns = b.numCols;
+            final double[] r = mQr.data;
+            DenseMatrix64F y = new DenseMatrix64F(n, columns);
+            for (int j = 0; j < columns; j++) {
+                for (int i = 0; i < n; i++) {
+                    double sum = b.data[i * columns + j];
+                    for (int k = 0; k < i; k++) {
+                        sum -= r[k * n + i] * y.data[k * columns + j];
+                    }
+                    y.data[i * columns + j] = sum / mDiagonal[i];
+                }
+            }
+            mMonitor.onProgress(1, 1);
+            return y;
+        }
+    }
+}
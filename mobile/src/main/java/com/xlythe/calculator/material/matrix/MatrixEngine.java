@@ -0,0 +1,318 @@
+package com.xlythe.calculator.material.matrix;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.xlythe.calculator.material.PreciseEvaluator;
+
+import org.ejml.data.DenseMatrix64F;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Evaluates matrix expressions off the UI thread. Literals are parsed once into EJML matrices
+ * and the work runs on a background executor, so large matrices don't freeze the pad. Starting
+ * a new evaluation cancels the previous one.
+ */
+public class MatrixEngine {
+    private static final String TAG = MatrixEngine.class.getSimpleName();
+
+    // How many significant digits to show for each cell
+    private static final int DIGITS = 10;
+
+    // What to call an imported file when its name has no letters in it, or is already taken
+    private static final String DEFAULT_VARIABLE_NAME = "data";
+
+    // Names the Solver already gives a meaning to: its constants, the graph's variable and
+    // Arity's functions. A file called e.csv must not change what e means.
+    private static final Set<String> RESERVED_NAMES = new HashSet<>(Arrays.asList(
+            "e", "pi", "i", "x", "y", "infinity", "nan",
+            "sin", "cos", "tan", "asin", "acos", "atan", "sind", "cosd", "tand",
+            "sinh", "cosh", "tanh", "asinh", "acosh", "atanh",
+            "ln", "log", "exp", "sqrt", "cbrt", "abs", "floor", "ceil", "round", "sign",
+            "gcd", "comb", "perm", "min", "max", "rnd", "re", "im"));
+
+    // Imported files belong to the process, not to whichever activity imported them, so a
+    // restored formula still finds them after a rotation
+    private static final Map<String, Value> sVariables = new ConcurrentHashMap<>();
+    private EvaluateTask mTask;
+    private ImportTask mImportTask;
+
+    /**
+     * Returns true if the expression has a matrix (or a matrix variable) in it, and should be
+     * handed to this engine instead of the Solver.
+     */
+    public boolean isMatrixExpression(String expr) {
+        if (expr.indexOf('[') != -1) {
+            return true;
+        }
+        if (sVariables.isEmpty()) {
+            return false;
+        }
+
+        int start = -1;
+        for (int i = 0; i <= expr.length(); i++) {
+            boolean letter = i < expr.length() && Character.isLetter(expr.charAt(i));
+            if (letter && start == -1) {
+                start = i;
+            } else if (!letter && start != -1) {
+                if (sVariables.containsKey(expr.substring(start, i))) {
+                    return true;
+                }
+                start = -1;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasVariable(String name) {
+        return sVariables.containsKey(name);
+    }
+
+    public Value getVariable(String name) {
+        return sVariables.get(name);
+    }
+
+    public void setVariable(String name, DenseMatrix64F value) {
+        sVariables.put(name, Value.of(value));
+    }
+
+    /**
+     * Turns a file name, like design-matrix.csv, into something that can be typed into an
+     * expression, like designmatrix. Names are letters only, so they can't be confused with
+     * numbers, and names the Solver or the matrix engine already use become "data" instead.
+     */
+    public static String toVariableName(String fileName) {
+        int extension = fileName.lastIndexOf('.');
+        if (extension > 0) {
+            fileName = fileName.substring(0, extension);
+        }
+        StringBuilder builder = new StringBuilder(fileName.length());
+        for (int i = 0; i < fileName.length(); i++) {
+            char c = fileName.charAt(i);
+            if (c < 128 && Character.isLetter(c)) {
+                builder.append(Character.toLowerCase(c));
+            }
+        }
+        String name = builder.toString();
+        if (name.isEmpty() || RESERVED_NAMES.contains(name) || Node.Function.isSupported(name)) {
+            name = DEFAULT_VARIABLE_NAME;
+        }
+        return name;
+    }
+
+    /**
+     * Reads a CSV file in the background and saves it as a variable with the given name. The
+     * stream is closed once the file is read. The callback gets the variable's name as its
+     * result.
+     */
+    public void importCsv(FileInputStream input, String name, Callback callback) {
+        cancelImport();
+        mImportTask = new ImportTask(input, name, callback);
+        mImportTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Stops the running import, if any. Its callback won't be called, and nothing is saved.
+     */
+    public void cancelImport() {
+        if (mImportTask != null) {
+            mImportTask.cancel(false);
+            mImportTask = null;
+        }
+    }
+
+    /**
+     * Starts evaluating the (normalized) expression in the background. The callback is called
+     * on the UI thread, unless the evaluation is cancelled first.
+     *
+     * @return false if the expression isn't valid matrix math, in which case nothing is started
+     */
+    public boolean evaluate(String expr, Callback callback) {
+        cancel();
+
+        Node node;
+        try {
+            node = new MatrixParser(expr, sVariables).parse();
+        } catch (MatrixException e) {
+            return false;
+        }
+
+        mTask = new EvaluateTask(node, callback);
+        mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    /**
+     * Stops the running evaluation, if any. Its callback won't be called.
+     */
+    public void cancel() {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    /**
+     * Evaluates the expression on the calling thread. Imported variables can be used.
+     */
+    public static Value evaluateNow(String expr) throws MatrixException {
+        return new MatrixParser(expr, sVariables).parse().evaluate(Monitor.NONE);
+    }
+
+    /**
+     * Writes the value the way it's typed, like [[1,2][3,4]], using normalized symbols.
+     */
+    public static String format(Value value) throws MatrixException {
+        if (!value.isMatrix()) {
+            return format(value.getScalar());
+        }
+
+        DenseMatrix64F matrix = value.getMatrix();
+        StringBuilder builder = new StringBuilder(matrix.numRows * matrix.numCols * (DIGITS + 1) + 2);
+        builder.append('[');
+        for (int i = 0; i < matrix.numRows; i++) {
+            builder.append('[');
+            for (int j = 0; j < matrix.numCols; j++) {
+                if (j != 0) {
+                    builder.append(',');
+                }
+                builder.append(format(matrix.unsafe_get(i, j)));
+            }
+            builder.append(']');
+        }
+        builder.append(']');
+        return builder.toString();
+    }
+
+    private static String format(double value) throws MatrixException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new MatrixException("Not a number");
+        }
+        return PreciseEvaluator.format(new BigDecimal(value).round(new MathContext(DIGITS)), DIGITS);
+    }
+
+    public interface Callback {
+        /**
+         * Called periodically during large operations, with a value from 0 to 100.
+         */
+        void onProgress(int percent);
+
+        void onResult(String result);
+
+        void onError();
+    }
+
+    private class ImportTask extends AsyncTask<Void, Integer, Value> implements Monitor {
+        private final FileInputStream mInput;
+        private final String mName;
+        private final Callback mCallback;
+        private int mLastPercent = -1;
+
+        ImportTask(FileInputStream input, String name, Callback callback) {
+            mInput = input;
+            mName = name;
+            mCallback = callback;
+        }
+
+        @Override
+        protected Value doInBackground(Void... params) {
+            try {
+                // Adjacency matrices and the like are mostly zeros, and much smaller kept sparse
+                return Value.of(CsvMatrixReader.read(mInput.getChannel(), this));
+            } catch (IOException | MatrixException | RuntimeException | OutOfMemoryError e) {
+                Log.w(TAG, "Failed to import " + mName, e);
+                return null;
+            } finally {
+                try {
+                    mInput.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it
+                }
+            }
+        }
+
+        @Override
+        public void onProgress(int done, int total) {
+            int percent = (int) (100L * done / total);
+            if (percent != mLastPercent) {
+                mLastPercent = percent;
+                publishProgress(percent);
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mCallback.onProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Value result) {
+            if (mImportTask == this) {
+                mImportTask = null;
+            }
+            if (result == null) {
+                mCallback.onError();
+            } else {
+                sVariables.put(mName, result);
+                mCallback.onResult(mName);
+            }
+        }
+    }
+
+    private static class EvaluateTask extends AsyncTask<Void, Integer, String> implements Monitor {
+        private final Node mNode;
+        private final Callback mCallback;
+        private int mLastPercent = -1;
+
+        EvaluateTask(Node node, Callback callback) {
+            mNode = node;
+            mCallback = callback;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                return format(mNode.evaluate(this));
+            } catch (MatrixException e) {
+                return null;
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // EJML has its own ways of failing, and big enough matrices won't fit in memory
+                Log.w(TAG, "Failed to evaluate", e);
+                return null;
+            }
+        }
+
+        @Override
+        public void onProgress(int done, int total) {
+            int percent = (int) (100L * done / total);
+            if (percent != mLastPercent) {
+                // Only post when the number changes, not for every row
+                mLastPercent = percent;
+                publishProgress(percent);
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mCallback.onProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(String result) {
+            if (result == null) {
+                mCallback.onError();
+            } else {
+                mCallback.onResult(result);
+            }
+        }
+    }
+}
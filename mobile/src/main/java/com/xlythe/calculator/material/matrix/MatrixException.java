@@ -0,0 +1,11 @@
+package com.xlythe.calculator.material.matrix;
+
+/**
+ * Thrown when an expression isn't valid matrix math, like multiplying mismatched sizes or
+ * inverting a singular matrix.
+ */
+public class MatrixException extends Exception {
+    public MatrixException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,349 @@
+package com.xlythe.calculator.material.matrix;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.ejml.ops.NormOps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Dense matrix operations. Small matrices go straight to EJML. Large ones use blocked loops
+ * over the raw row major arrays that check for cancellation and report progress as they go,
+ * so a 200x200 inverse can be abandoned as soon as the user types another digit. The inner
+ * block updates are split by rows across every core.
+ */
+final class MatrixKernels {
+    // Past this many rows (or columns), an O(n^3) operation is worth interrupting
+    static final int LARGE_SIZE = 48;
+
+    // Sized so that a block of each operand fits in L1 on a typical phone
+    static final int BLOCK_SIZE = 32;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService sExecutor;
+
+    private MatrixKernels() {}
+
+    /**
+     * Work on the rows (or columns) in [start, end).
+     */
+    interface RangeTask {
+        void run(int start, int end);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(THREADS);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Splits [start, end) into one range per core, with at least grain items each, and runs
+     * them in parallel. The calling thread takes the first range itself.
+     */
+    static void parallelFor(int start, int end, int grain, RangeTask task) throws MatrixException {
+        final int count = end - start;
+        final int threads = Math.min(THREADS, (count + grain - 1) / Math.max(1, grain));
+        if (threads <= 1) {
+            if (count > 0) {
+                task.run(start, end);
+            }
+            return;
+        }
+
+        final int chunk = (count + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>(threads - 1);
+        for (int i = start + chunk; i < end; i += chunk) {
+            final int from = i;
+            final int to = Math.min(i + chunk, end);
+            final RangeTask rangeTask = task;
+            futures.add(getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    rangeTask.run(from, to);
+                }
+            }));
+        }
+        task.run(start, Math.min(start + chunk, end));
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MatrixException("Interrupted");
+            } catch (ExecutionException e) {
+                throw new MatrixException(String.valueOf(e.getCause()));
+            }
+        }
+    }
+
+    static DenseMatrix64F add(DenseMatrix64F a, DenseMatrix64F b, double beta) throws MatrixException {
+        if (a.numRows != b.numRows || a.numCols != b.numCols) {
+            throw new MatrixException("Mismatched sizes");
+        }
+        DenseMatrix64F result = new DenseMatrix64F(a.numRows, a.numCols);
+        CommonOps.add(a, beta, b, result);
+        return result;
+    }
+
+    static DenseMatrix64F scale(double alpha, DenseMatrix64F a) {
+        DenseMatrix64F result = new DenseMatrix64F(a.numRows, a.numCols);
+        CommonOps.scale(alpha, a, result);
+        return result;
+    }
+
+    static DenseMatrix64F transpose(DenseMatrix64F a) {
+        return CommonOps.transpose(a, null);
+    }
+
+    static double trace(DenseMatrix64F a) throws MatrixException {
+        requireSquare(a);
+        return CommonOps.trace(a);
+    }
+
+    static double norm(DenseMatrix64F a) {
+        return NormOps.normF(a);
+    }
+
+    static DenseMatrix64F multiply(DenseMatrix64F a, DenseMatrix64F b, Monitor monitor) throws MatrixException {
+        if (a.numCols != b.numRows) {
+            throw new MatrixException("Mismatched sizes");
+        }
+        DenseMatrix64F result = new DenseMatrix64F(a.numRows, b.numCols);
+        if (!isLarge(a) && !isLarge(b)) {
+            CommonOps.mult(a, b, result);
+            return result;
+        }
+
+        final int n = a.numRows;
+        final int m = a.numCols;
+        final int p = b.numCols;
+        final double[] left = a.data;
+        final double[] right = b.data;
+        final double[] out = result.data;
+        for (int i0 = 0; i0 < n; i0 += BLOCK_SIZE * THREADS) {
+            checkCancelled(monitor);
+            final int iEnd = Math.min(i0 + BLOCK_SIZE * THREADS, n);
+            parallelFor(i0, iEnd, BLOCK_SIZE, new RangeTask() {
+                @Override
+                public void run(int start, int end) {
+                    for (int k0 = 0; k0 < m; k0 += BLOCK_SIZE) {
+                        final int kMax = Math.min(k0 + BLOCK_SIZE, m);
+                        for (int i = start; i < end; i++) {
+                            final int outRow = i * p;
+                            for (int k = k0; k < kMax; k++) {
+                                final double value = left[i * m + k];
+                                if (value == 0) {
+                                    continue;
+                                }
+                                final int rightRow = k * p;
+                                for (int j = 0; j < p; j++) {
+                                    out[outRow + j] += value * right[rightRow + j];
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            monitor.onProgress(iEnd, n);
+        }
+        return result;
+    }
+
+    static double det(DenseMatrix64F a, Monitor monitor) throws MatrixException {
+        requireSquare(a);
+        if (!isLarge(a)) {
+            return CommonOps.det(a);
+        }
+
+        DenseMatrix64F lu = a.copy();
+        int[] pivots = new int[a.numRows];
+        int sign = decompose(lu, pivots, monitor, 1);
+        if (sign == 0) {
+            return 0;
+        }
+        final int n = lu.numRows;
+        double det = sign;
+        for (int i = 0; i < n; i++) {
+            det *= lu.data[i * n + i];
+        }
+        return det;
+    }
+
+    static DenseMatrix64F invert(DenseMatrix64F a, Monitor monitor) throws MatrixException {
+        requireSquare(a);
+        if (!isLarge(a)) {
+            DenseMatrix64F result = new DenseMatrix64F(a.numRows, a.numCols);
+            if (!CommonOps.invert(a, result)) {
+                throw new MatrixException("Singular matrix");
+            }
+            return result;
+        }
+
+        final int n = a.numRows;
+        DenseMatrix64F lu = a.copy();
+        int[] pivots = new int[n];
+        if (decompose(lu, pivots, monitor, 2) == 0) {
+            throw new MatrixException("Singular matrix");
+        }
+
+        // Solve LU x = P e_j for every column j of the identity
+        DenseMatrix64F result = new DenseMatrix64F(n, n);
+        double[] column = new double[n];
+        for (int j = 0; j < n; j++) {
+            checkCancelled(monitor);
+            for (int i = 0; i < n; i++) {
+                column[i] = pivots[i] == j ? 1 : 0;
+            }
+            substitute(lu, column);
+            for (int i = 0; i < n; i++) {
+                result.data[i * n + j] = column[i];
+            }
+            monitor.onProgress(n + j + 1, 2 * n);
+        }
+        return result;
+    }
+
+    /**
+     * Decomposes the matrix in place into L (below the diagonal, with an implied unit diagonal)
+     * and U, with partial pivoting. pivots[i] is the original row now stored in row i.
+     * Progress is reported as the first of the given number of equally sized phases.
+     *
+     * This is the right looking blocked algorithm: factor a panel of BLOCK_SIZE columns, then
+     * update the rest of the matrix with one pass over it per panel, in parallel.
+     *
+     * @return the sign of the row permutation, or 0 if the matrix is singular
+     */
+    static int decompose(DenseMatrix64F lu, int[] pivots, Monitor monitor, int phases) throws MatrixException {
+        final int n = lu.numRows;
+        final double[] data = lu.data;
+        for (int i = 0; i < n; i++) {
+            pivots[i] = i;
+        }
+
+        int sign = 1;
+        for (int k0 = 0; k0 < n; k0 += BLOCK_SIZE) {
+            checkCancelled(monitor);
+            final int panelStart = k0;
+            final int panelEnd = Math.min(k0 + BLOCK_SIZE, n);
+
+            // Factor the panel, swapping whole rows
+            for (int k = panelStart; k < panelEnd; k++) {
+                int pivot = k;
+                double max = Math.abs(data[k * n + k]);
+                for (int i = k + 1; i < n; i++) {
+                    double value = Math.abs(data[i * n + k]);
+                    if (value > max) {
+                        max = value;
+                        pivot = i;
+                    }
+                }
+                if (max == 0) {
+                    return 0;
+                }
+                if (pivot != k) {
+                    for (int j = 0; j < n; j++) {
+                        double tmp = data[k * n + j];
+                        data[k * n + j] = data[pivot * n + j];
+                        data[pivot * n + j] = tmp;
+                    }
+                    int tmp = pivots[k];
+                    pivots[k] = pivots[pivot];
+                    pivots[pivot] = tmp;
+                    sign = -sign;
+                }
+
+                final double diagonal = data[k * n + k];
+                for (int i = k + 1; i < n; i++) {
+                    final double factor = data[i * n + k] / diagonal;
+                    data[i * n + k] = factor;
+                    if (factor == 0) {
+                        continue;
+                    }
+                    for (int j = k + 1; j < panelEnd; j++) {
+                        data[i * n + j] -= factor * data[k * n + j];
+                    }
+                }
+            }
+
+            // Finish the panel's rows of U, to the right of the panel
+            for (int k = panelStart; k < panelEnd; k++) {
+                for (int i = k + 1; i < panelEnd; i++) {
+                    final double factor = data[i * n + k];
+                    if (factor == 0) {
+                        continue;
+                    }
+                    for (int j = panelEnd; j < n; j++) {
+                        data[i * n + j] -= factor * data[k * n + j];
+                    }
+                }
+            }
+
+            // Update the rest of the matrix, split by rows across cores
+            parallelFor(panelEnd, n, BLOCK_SIZE, new RangeTask() {
+                @Override
+                public void run(int start, int end) {
+                    for (int i = start; i < end; i++) {
+                        final int row = i * n;
+                        for (int k = panelStart; k < panelEnd; k++) {
+                            final double factor = data[row + k];
+                            if (factor == 0) {
+                                continue;
+                            }
+                            final int pivotRow = k * n;
+                            for (int j = panelEnd; j < n; j++) {
+                                data[row + j] -= factor * data[pivotRow + j];
+                            }
+                        }
+                    }
+                }
+            });
+            monitor.onProgress(panelEnd, phases * n);
+        }
+        return sign;
+    }
+
+    /**
+     * Solves LU x = b in place, where lu came from decompose and b is already permuted.
+     */
+    static void substitute(DenseMatrix64F lu, double[] b) {
+        final int n = lu.numRows;
+        final double[] data = lu.data;
+        for (int i = 1; i < n; i++) {
+            double sum = b[i];
+            for (int k = 0; k < i; k++) {
+                sum -= data[i * n + k] * b[k];
+            }
+            b[i] = sum;
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = b[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= data[i * n + k] * b[k];
+            }
+            b[i] = sum / data[i * n + i];
+        }
+    }
+
+    static boolean isLarge(DenseMatrix64F a) {
+        return a.numRows >= LARGE_SIZE || a.numCols >= LARGE_SIZE;
+    }
+
+    static void requireSquare(DenseMatrix64F a) throws MatrixException {
+        if (a.numRows != a.numCols) {
+            throw new MatrixException("Matrix isn't square");
+        }
+    }
+
+    static void checkCancelled(Monitor monitor) throws MatrixException {
+        if (monitor.isCancelled()) {
+            throw new MatrixException("Cancelled");
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.xlythe.calculator.material.matrix;
+
+import com.xlythe.math.Constants;
+
+import org.ejml.data.DenseMatrix64F;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses a (normalized) matrix expression, like det([[1,2][3,4]])×[[1][2]], into a tree of
+ * Nodes. Matrix literals are read straight into a DenseMatrix64F in a single pass, and named
+ * variables (like an imported CSV file) are looked up once.
+ */
+class MatrixParser {
+    private final String mExpr;
+    private final Map<String, Value> mVariables;
+    private int mPosition;
+
+    MatrixParser(String expr) {
+        this(expr, Collections.<String, Value>emptyMap());
+    }
+
+    MatrixParser(String expr, Map<String, Value> variables) {
+        mExpr = expr;
+        mVariables = variables;
+    }
+
+    Node parse() throws MatrixException {
+        if (mExpr.isEmpty()) {
+            throw new MatrixException("Empty expression");
+        }
+        Node node = parseExpression();
+        if (mPosition != mExpr.length()) {
+            throw new MatrixException("Unexpected " + mExpr.charAt(mPosition));
+        }
+        return node;
+    }
+
+    private Node parseExpression() throws MatrixException {
+        Node node = parseTerm();
+        while (true) {
+            if (accept('+') || accept(Constants.PLUS)) {
+                node = new Node.Binary(Node.Binary.ADD, node, parseTerm());
+            } else if (accept('-') || accept(Constants.MINUS)) {
+                node = new Node.Binary(Node.Binary.SUBTRACT, node, parseTerm());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseTerm() throws MatrixException {
+        Node node = parseUnary();
+        while (true) {
+            if (accept('*') || accept(Constants.MUL)) {
+                node = new Node.Binary(Node.Binary.MULTIPLY, node, parseUnary());
+            } else if (peek() == '[' || peek() == '(') {
+                // Implicit multiplication, eg. 2[[1][2]]
+                node = new Node.Binary(Node.Binary.MULTIPLY, node, parseUnary());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseUnary() throws MatrixException {
+        if (accept('-') || accept(Constants.MINUS)) {
+            return new Node.Binary(Node.Binary.MULTIPLY, new Node.Scalar(-1), parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Node parsePrimary() throws MatrixException {
+        if (accept('(')) {
+            Node node = parseExpression();
+            expectClose();
+            return node;
+        }
+        if (peek() == '[') {
+            return new Node.Literal(Value.of(parseMatrix()));
+        }
+        if (Character.isLetter(peek())) {
+            return parseFunction();
+        }
+        return new Node.Scalar(parseNumber());
+    }
+
+    private Node parseFunction() throws MatrixException {
+        final int start = mPosition;
+        while (Character.isLetter(peek())) {
+            mPosition++;
+        }
+        final String name = mExpr.substring(start, mPosition);
+        if (mVariables.containsKey(name)) {
+            return new Node.Literal(mVariables.get(name));
+        }
+        if (!Node.Function.isSupported(name)) {
+            throw new MatrixException("Unknown function " + name);
+        }
+        if (!accept('(')) {
+            throw new MatrixException("Expected ( after " + name);
+        }
+
+        List<Node> arguments = new ArrayList<>();
+        arguments.add(parseExpression());
+        while (accept(',') || accept(Constants.MATRIX_SEPARATOR)) {
+            arguments.add(parseExpression());
+        }
+        expectClose();
+        return new Node.Function(name, arguments);
+    }
+
+    /**
+     * Reads [[a,b,c][d,e,f]] directly into a row major array, without splitting it into strings.
+     */
+    private DenseMatrix64F parseMatrix() throws MatrixException {
+        expect('[');
+        int rows = 0;
+        int columns = -1;
+        double[] data = new double[16];
+        int size = 0;
+        while (accept('[')) {
+            int rowColumns = 0;
+            do {
+                if (size == data.length) {
+                    double[] grown = new double[data.length * 2];
+                    System.arraycopy(data, 0, grown, 0, size);
+                    data = grown;
+                }
+                data[size++] = parseSignedNumber();
+                rowColumns++;
+            } while (accept(',') || accept(Constants.MATRIX_SEPARATOR));
+            expect(']');
+
+            if (columns == -1) {
+                columns = rowColumns;
+            } else if (columns != rowColumns) {
+                throw new MatrixException("Ragged matrix");
+            }
+            rows++;
+        }
+        expect(']');
+        if (rows == 0) {
+            throw new MatrixException("Empty matrix");
+        }
+
+        DenseMatrix64F matrix = new DenseMatrix64F(rows, columns);
+        System.arraycopy(data, 0, matrix.data, 0, size);
+        return matrix;
+    }
+
+    private double parseSignedNumber() throws MatrixException {
+        if (accept('-') || accept(Constants.MINUS)) {
+            return -parseNumber();
+        }
+        return parseNumber();
+    }
+
+    private double parseNumber() throws MatrixException {
+        final int start = mPosition;
+        while (Character.isDigit(peek()) || peek() == '.' || peek() == Constants.DECIMAL_POINT) {
+            mPosition++;
+        }
+        if (start == mPosition) {
+            throw new MatrixException("Expected a number at " + start);
+        }
+        // Large results are written as 1.5e20, so they can be typed back in
+        if (peek() == 'e' && mPosition + 1 < mExpr.length()) {
+            int next = mPosition + 1;
+            if (mExpr.charAt(next) == '-' || mExpr.charAt(next) == Constants.MINUS) {
+                next++;
+            }
+            if (next < mExpr.length() && Character.isDigit(mExpr.charAt(next))) {
+                mPosition = next;
+                while (Character.isDigit(peek())) {
+                    mPosition++;
+                }
+            }
+        }
+        try {
+            return Double.parseDouble(mExpr.substring(start, mPosition)
+                    .replace(Constants.DECIMAL_POINT, '.')
+                    .replace(Constants.MINUS, '-'));
+        } catch (NumberFormatException e) {
+            throw new MatrixException("Invalid number at " + start);
+        }
+    }
+
+    private void expectClose() throws MatrixException {
+        // Trailing parenthesis can be left off, like they can for the Solver
+        if (!accept(')') && mPosition != mExpr.length()) {
+            throw new MatrixException("Unbalanced parenthesis");
+        }
+    }
+
+    private void expect(char c) throws MatrixException {
+        if (!accept(c)) {
+            throw new MatrixException("Expected " + c + " at " + mPosition);
+        }
+    }
+
+    private boolean accept(char c) {
+        if (peek() == c) {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    private char peek() {
+        return mPosition < mExpr.length() ? mExpr.charAt(mPosition) : '\0';
+    }
+}
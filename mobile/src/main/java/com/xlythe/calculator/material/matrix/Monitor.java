@@ -0,0 +1,20 @@
+package com.xlythe.calculator.material.matrix;
+
+/**
+ * Lets long running kernels report progress, and check if they should stop early.
+ */
+interface Monitor {
+    Monitor NONE = new Monitor() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void onProgress(int done, int total) {}
+    };
+
+    boolean isCancelled();
+
+    void onProgress(int done, int total);
+}
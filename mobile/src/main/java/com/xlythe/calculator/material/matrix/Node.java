@@ -0,0 +1,201 @@
+package com.xlythe.calculator.material.matrix;
+
+import org.ejml.data.DenseMatrix64F;
+
+import java.util.List;
+
+/**
+ * A node in a parsed matrix expression. Literals are parsed once, so evaluating never touches
+ * strings.
+ */
+abstract class Node {
+    abstract Value evaluate(Monitor monitor) throws MatrixException;
+
+    static class Scalar extends Node {
+        private final double mValue;
+
+        Scalar(double value) {
+            mValue = value;
+        }
+
+        @Override
+        Value evaluate(Monitor monitor) {
+            return new Value(mValue);
+        }
+    }
+
+    static class Literal extends Node {
+        private final Value mValue;
+
+        Literal(Value value) {
+            mValue = value;
+        }
+
+        @Override
+        Value evaluate(Monitor monitor) {
+            return mValue;
+        }
+    }
+
+    static class Binary extends Node {
+        static final int ADD = 0;
+        static final int SUBTRACT = 1;
+        static final int MULTIPLY = 2;
+
+        private final int mOperator;
+        private final Node mLeft;
+        private final Node mRight;
+
+        Binary(int operator, Node left, Node right) {
+            mOperator = operator;
+            mLeft = left;
+            mRight = right;
+        }
+
+        @Override
+        Value evaluate(Monitor monitor) throws MatrixException {
+            Value left = mLeft.evaluate(monitor);
+            Value right = mRight.evaluate(monitor);
+
+            if (!left.isMatrix() && !right.isMatrix()) {
+                switch (mOperator) {
+                    case ADD:
+                        return new Value(left.getScalar() + right.getScalar());
+                    case SUBTRACT:
+                        return new Value(left.getScalar() - right.getScalar());
+                    default:
+                        return new Value(left.getScalar() * right.getScalar());
+                }
+            }
+
+            if (mOperator == MULTIPLY) {
+                if (!left.isMatrix()) {
+                    return scale(left.getScalar(), right);
+                }
+                if (!right.isMatrix()) {
+                    return scale(right.getScalar(), left);
+                }
+                return multiply(left, right, monitor);
+            }
+
+            if (!left.isMatrix() || !right.isMatrix()) {
+                throw new MatrixException("Can't add a scalar to a matrix");
+            }
+            final double beta = mOperator == SUBTRACT ? -1 : 1;
+            if (left.isSparse() && right.isSparse()) {
+                return new Value(left.getSparseMatrix().add(right.getSparseMatrix(), beta));
+            }
+            return new Value(MatrixKernels.add(left.getMatrix(), right.getMatrix(), beta));
+        }
+
+        private static Value scale(double alpha, Value matrix) {
+            if (matrix.isSparse()) {
+                return new Value(matrix.getSparseMatrix().scale(alpha));
+            }
+            return new Value(MatrixKernels.scale(alpha, matrix.getMatrix()));
+        }
+
+        private static Value multiply(Value left, Value right, Monitor monitor) throws MatrixException {
+            if (left.isSparse() && right.isSparse()) {
+                return new Value(left.getSparseMatrix().multiply(right.getSparseMatrix(), monitor));
+            }
+            if (left.isSparse()) {
+                return new Value(left.getSparseMatrix().multiply(right.getMatrix(), monitor));
+            }
+            if (right.isSparse()) {
+                return new Value(right.getSparseMatrix().multiplyLeft(left.getMatrix(), monitor));
+            }
+            return Value.of(MatrixKernels.multiply(left.getMatrix(), right.getMatrix(), monitor));
+        }
+    }
+
+    static class Function extends Node {
+        static final String DET = "det";
+        static final String INVERSE = "inver";
+        static final String TRANSPOSE = "trans";
+        static final String TRACE = "trace";
+        static final String NORM = "norm";
+        static final String SOLVE = "solve";
+        static final String LEAST_SQUARES = "lstsq";
+
+        private final String mName;
+        private final List<Node> mArguments;
+
+        Function(String name, List<Node> arguments) {
+            mName = name;
+            mArguments = arguments;
+        }
+
+        static boolean isSupported(String name) {
+            return DET.equals(name)
+                    || INVERSE.equals(name)
+                    || TRANSPOSE.equals(name)
+                    || TRACE.equals(name)
+                    || NORM.equals(name)
+                    || SOLVE.equals(name)
+                    || LEAST_SQUARES.equals(name);
+        }
+
+        @Override
+        Value evaluate(Monitor monitor) throws MatrixException {
+            if (SOLVE.equals(mName) || LEAST_SQUARES.equals(mName)) {
+                return evaluateSystem(monitor);
+            }
+            if (mArguments.size() != 1) {
+                throw new MatrixException(mName + " takes a single matrix");
+            }
+            Value argument = mArguments.get(0).evaluate(monitor);
+            if (!argument.isMatrix()) {
+                throw new MatrixException(mName + " needs a matrix");
+            }
+            if (argument.isSparse()) {
+                SparseMatrix sparse = argument.getSparseMatrix();
+                switch (mName) {
+                    case DET:
+                        return new Value(sparse.det(monitor));
+                    case TRANSPOSE:
+                        return new Value(sparse.transpose());
+                    case TRACE:
+                        return new Value(sparse.trace());
+                    case NORM:
+                        return new Value(sparse.norm());
+                    default:
+                        // The inverse of a sparse matrix is usually dense
+                        break;
+                }
+            }
+            DenseMatrix64F matrix = argument.getMatrix();
+
+            switch (mName) {
+                case DET:
+                    return new Value(MatrixKernels.det(matrix, monitor));
+                case INVERSE:
+                    return Value.of(MatrixKernels.invert(matrix, monitor));
+                case TRANSPOSE:
+                    return new Value(MatrixKernels.transpose(matrix));
+                case TRACE:
+                    return new Value(MatrixKernels.trace(matrix));
+                default:
+                    return new Value(MatrixKernels.norm(matrix));
+            }
+        }
+
+        /**
+         * solve(A,b) and lstsq(A,b), which find x in Ax=b.
+         */
+        private Value evaluateSystem(Monitor monitor) throws MatrixException {
+            if (mArguments.size() != 2) {
+                throw new MatrixException(mName + " takes a matrix and a vector");
+            }
+            Value a = mArguments.get(0).evaluate(monitor);
+            Value b = mArguments.get(1).evaluate(monitor);
+            if (!a.isMatrix() || !b.isMatrix()) {
+                throw new MatrixException(mName + " needs matrices");
+            }
+            if (LEAST_SQUARES.equals(mName)) {
+                return new Value(LinearSolver.leastSquares(a.getMatrix(), b.getMatrix(), monitor));
+            }
+            return LinearSolver.solve(a, b, monitor);
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package com.xlythe.calculator.material.matrix;
+
+import org.ejml.data.DenseMatrix64F;
+
+import java.util.Arrays;
+
+/**
+ * An immutable matrix in compressed sparse row (CSR) form. Only the non-zero cells are stored,
+ * so identity-like and banded matrices take O(n) memory instead of O(n^2), and multiplying,
+ * solving and taking the determinant only touch those cells.
+ */
+public final class SparseMatrix {
+    public final int numRows;
+    public final int numCols;
+    // Row i's cells are at [mRowStarts[i], mRowStarts[i + 1]) in mColumns and mValues, in
+    // increasing column order
+    private final int[] mRowStarts;
+    private final int[] mColumns;
+    private final double[] mValues;
+
+    private SparseMatrix(int numRows, int numCols, int[] rowStarts, int[] columns, double[] values) {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        mRowStarts = rowStarts;
+        mColumns = columns;
+        mValues = values;
+    }
+
+    public static SparseMatrix fromDense(DenseMatrix64F dense) {
+        final int rows = dense.numRows;
+        final int cols = dense.numCols;
+        final double[] data = dense.data;
+        int nonZeros = countNonZeros(dense);
+
+        int[] rowStarts = new int[rows + 1];
+        int[] columns = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        int index = 0;
+        for (int i = 0; i < rows; i++) {
+            rowStarts[i] = index;
+            for (int j = 0; j < cols; j++) {
+                final double value = data[i * cols + j];
+                if (value != 0) {
+                    columns[index] = j;
+                    values[index] = value;
+                    index++;
+                }
+            }
+        }
+        rowStarts[rows] = index;
+        return new SparseMatrix(rows, cols, rowStarts, columns, values);
+    }
+
+    static int countNonZeros(DenseMatrix64F dense) {
+        final int size = dense.getNumElements();
+        final double[] data = dense.data;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (data[i] != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getNonZeroCount() {
+        return mRowStarts[numRows];
+    }
+
+    public DenseMatrix64F toDense() {
+        DenseMatrix64F dense = new DenseMatrix64F(numRows, numCols);
+        for (int i = 0; i < numRows; i++) {
+            for (int k = mRowStarts[i]; k < mRowStarts[i + 1]; k++) {
+                dense.data[i * numCols + mColumns[k]] = mValues[k];
+            }
+        }
+        return dense;
+    }
+
+    public SparseMatrix scale(double alpha) {
+        if (alpha == 0) {
+            return new SparseMatrix(numRows, numCols, new int[numRows + 1], new int[0], new double[0]);
+        }
+        double[] values = new double[mValues.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = alpha * mValues[i];
+        }
+        return new SparseMatrix(numRows, numCols, mRowStarts, mColumns, values);
+    }
+
+    public SparseMatrix transpose() {
+        final int nonZeros = getNonZeroCount();
+        int[] rowStarts = new int[numCols + 1];
+        for (int k = 0; k < nonZeros; k++) {
+            rowStarts[mColumns[k] + 1]++;
+        }
+        for (int j = 0; j < numCols; j++) {
+            rowStarts[j + 1] += rowStarts[j];
+        }
+
+        int[] next = Arrays.copyOf(rowStarts, numCols);
+        int[] columns = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        for (int i = 0; i < numRows; i++) {
+            for (int k = mRowStarts[i]; k < mRowStarts[i + 1]; k++) {
+                final int index = next[mColumns[k]]++;
+                columns[index] = i;
+                values[index] = mValues[k];
+            }
+        }
+        return new SparseMatrix(numCols, numRows, rowStarts, columns, values);
+    }
+
+    public double trace() throws MatrixException {
+        requireSquare();
+        double trace = 0;
+        for (int i = 0; i < numRows; i++) {
+            trace += get(i, i);
+        }
+        return trace;
+    }
+
+    /**
+     * The Frobenius norm, like EJML's NormOps.normF.
+     */
+    public double norm() {
+        double scale = 0;
+        for (int k = 0; k < getNonZeroCount(); k++) {
+            scale = Math.max(scale, Math.abs(mValues[k]));
+        }
+        if (scale == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int k = 0; k < getNonZeroCount(); k++) {
+            final double value = mValues[k] / scale;
+            sum += value * value;
+        }
+        return scale * Math.sqrt(sum);
+    }
+
+    public double get(int row, int column) {
+        int index = Arrays.binarySearch(mColumns, mRowStarts[row], mRowStarts[row + 1], column);
+        return index < 0 ? 0 : mValues[index];
+    }
+
+    /**
+     * Returns this + beta * other.
+     */
+    public SparseMatrix add(SparseMatrix other, double beta) throws MatrixException {
+        if (numRows != other.numRows || numCols != other.numCols) {
+            throw new MatrixException("Mismatched sizes");
+        }
+        Builder builder = new Builder(numRows, numCols, getNonZeroCount() + other.getNonZeroCount());
+        for (int i = 0; i < numRows; i++) {
+            int a = mRowStarts[i];
+            int b = other.mRowStarts[i];
+            final int aEnd = mRowStarts[i + 1];
+            final int bEnd = other.mRowStarts[i + 1];
+            while (a < aEnd || b < bEnd) {
+                final int aColumn = a < aEnd ? mColumns[a] : Integer.MAX_VALUE;
+                final int bColumn = b < bEnd ? other.mColumns[b] : Integer.MAX_VALUE;
+                if (aColumn < bColumn) {
+                    builder.append(aColumn, mValues[a++]);
+                } else if (bColumn < aColumn) {
+                    builder.append(bColumn, beta * other.mValues[b++]);
+                } else {
+                    builder.append(aColumn, mValues[a++] + beta * other.mValues[b++]);
+                }
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Multiplies two sparse matrices, row by row (Gustavson's algorithm). Work is proportional
+     * to the number of products of non-zero cells, not to the size of the matrices.
+     */
+    public SparseMatrix multiply(SparseMatrix other, Monitor monitor) throws MatrixException {
+        if (numCols != other.numRows) {
+            throw new MatrixException("Mismatched sizes");
+        }
+        final int cols = other.numCols;
+        Builder builder = new Builder(numRows, cols, getNonZeroCount() + other.getNonZeroCount());
+
+        // A dense accumulator for one row of the result, and the columns that are set in it
+        double[] accumulator = new double[cols];
+        boolean[] used = new boolean[cols];
+        int[] usedColumns = new int[cols];
+        for (int i = 0; i < numRows; i++) {
+            int count = 0;
+            for (int k = mRowStarts[i]; k < mRowStarts[i + 1]; k++) {
+                final double value = mValues[k];
+                final int row = mColumns[k];
+                for (int l = other.mRowStarts[row]; l < other.mRowStarts[row + 1]; l++) {
+                    final int column = other.mColumns[l];
+                    if (!used[column]) {
+                        used[column] = true;
+                        usedColumns[count++] = column;
+                    }
+                    accumulator[column] += value * other.mValues[l];
+                }
+            }
+
+            Arrays.sort(usedColumns, 0, count);
+            for (int c = 0; c < count; c++) {
+                final int column = usedColumns[c];
+                builder.append(column, accumulator[column]);
+                accumulator[column] = 0;
+                used[column] = false;
+            }
+            builder.endRow();
+
+            if (i % 256 == 255) {
+                MatrixKernels.checkCancelled(monitor);
+                monitor.onProgress(i + 1, numRows);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Multiplies by a dense matrix, which gives a dense result.
+     */
+    public DenseMatrix64F multiply(DenseMatrix64F other, Monitor monitor) throws MatrixException {
+        if (numCols != other.numRows) {
+            throw new MatrixException("Mismatched sizes");
+        }
+        final int cols = other.numCols;
+        DenseMatrix64F result = new DenseMatrix64F(numRows, cols);
+        for (int i = 0; i < numRows; i++) {
+            final int outRow = i * cols;
+            for (int k = mRowStarts[i]; k < mRowStarts[i + 1]; k++) {
+                final double value = mValues[k];
+                final int otherRow = mColumns[k] * cols;
+                for (int j = 0; j < cols; j++) {
+                    result.data[outRow + j] += value * other.data[otherRow + j];
+                }
+            }
+            if (i % 256 == 255) {
+                MatrixKernels.checkCancelled(monitor);
+                monitor.onProgress(i + 1, numRows);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies a dense matrix by this one, which gives a dense result.
+     */
+    public DenseMatrix64F multiplyLeft(DenseMatrix64F other, Monitor monitor) throws MatrixException {
+        // (B A) = (A^T B^T)^T
+        DenseMatrix64F result = transpose().multiply(MatrixKernels.transpose(other), monitor);
+        return MatrixKernels.transpose(result);
+    }
+
+    public double det(Monitor monitor) throws MatrixException {
+        requireSquare();
+        return new Elimination(this, null, monitor).det();
+    }
+
+    /**
+     * Solves this * x = b, where b has a single column.
+     */
+    public double[] solve(double[] b, Monitor monitor) throws MatrixException {
+        requireSquare();
+        if (b.length != numRows) {
+            throw new MatrixException("Mismatched sizes");
+        }
+        return new Elimination(this, b, monitor).solve();
+    }
+
+    private void requireSquare() throws MatrixException {
+        if (numRows != numCols) {
+            throw new MatrixException("Matrix isn't square");
+        }
+    }
+
+    /**
+     * Builds a CSR matrix one row at a time, with cells appended in increasing column order.
+     */
+    private static class Builder {
+        private final int mRows;
+        private final int mCols;
+        private final int[] mRowStarts;
+        private int[] mColumns;
+        private double[] mValues;
+        private int mRow;
+        private int mSize;
+
+        Builder(int rows, int cols, int capacity) {
+            mRows = rows;
+            mCols = cols;
+            mRowStarts = new int[rows + 1];
+            mColumns = new int[Math.max(capacity, 16)];
+            mValues = new double[mColumns.length];
+        }
+
+        void append(int column, double value) {
+            if (value == 0) {
+                return;
+            }
+            if (mSize == mColumns.length) {
+                mColumns = Arrays.copyOf(mColumns, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mColumns[mSize] = column;
+            mValues[mSize] = value;
+            mSize++;
+        }
+
+        void endRow() {
+            mRowStarts[++mRow] = mSize;
+        }
+
+        SparseMatrix build() {
+            return new SparseMatrix(mRows, mCols, mRowStarts,
+                    Arrays.copyOf(mColumns, mSize), Arrays.copyOf(mValues, mSize));
+        }
+    }
+
+    /**
+     * Gaussian elimination with partial pivoting on sparse rows. Rows are bucketed by their
+     * leading column, so each step only looks at the rows that actually have a cell in the
+     * pivot column, and work grows with the fill-in rather than with n^3. Banded matrices stay
+     * banded.
+     */
+    private static class Elimination {
+        private final int mSize;
+        private final int[][] mRowColumns;
+        private final double[][] mRowValues;
+        private final int[] mRowLengths;
+        private final double[] mRhs;
+        private final Monitor mMonitor;
+
+        // Singly linked lists of the rows whose leading cell is in each column
+        private final int[] mBucketHeads;
+        private final int[] mNextInBucket;
+
+        // mPivotRows[k] is the row chosen as the pivot for column k
+        private final int[] mPivotRows;
+
+        // Scratch space for merging rows
+        private int[] mMergeColumns;
+        private double[] mMergeValues;
+
+        Elimination(SparseMatrix matrix, double[] rhs, Monitor monitor) {
+            final int n = matrix.numRows;
+            mSize = n;
+            mRowColumns = new int[n][];
+            mRowValues = new double[n][];
+            mRowLengths = new int[n];
+            mRhs = rhs == null ? null : rhs.clone();
+            mMonitor = monitor;
+            mBucketHeads = new int[n];
+            mNextInBucket = new int[n];
+            mPivotRows = new int[n];
+            mMergeColumns = new int[16];
+            mMergeValues = new double[16];
+
+            Arrays.fill(mBucketHeads, -1);
+            for (int i = 0; i < n; i++) {
+                final int start = matrix.mRowStarts[i];
+                final int end = matrix.mRowStarts[i + 1];
+                mRowColumns[i] = Arrays.copyOfRange(matrix.mColumns, start, end);
+                mRowValues[i] = Arrays.copyOfRange(matrix.mValues, start, end);
+                mRowLengths[i] = end - start;
+                addToBucket(i);
+            }
+        }
+
+        private void addToBucket(int row) {
+            if (mRowLengths[row] == 0) {
+                return;
+            }
+            final int column = mRowColumns[row][0];
+            mNextInBucket[row] = mBucketHeads[column];
+            mBucketHeads[column] = row;
+        }
+
+        /**
+         * Reduces the matrix to upper triangular form. Returns false if it's singular.
+         */
+        private boolean eliminate() throws MatrixException {
+            for (int k = 0; k < mSize; k++) {
+                if (k % 64 == 0) {
+                    MatrixKernels.checkCancelled(mMonitor);
+                    mMonitor.onProgress(k, mSize);
+                }
+
+                // Pick the largest leading cell in this column
+                int pivot = -1;
+                double max = 0;
+                for (int row = mBucketHeads[k]; row != -1; row = mNextInBucket[row]) {
+                    final double value = Math.abs(mRowValues[row][0]);
+                    if (value > max) {
+                        max = value;
+                        pivot = row;
+                    }
+                }
+                if (pivot == -1) {
+                    return false;
+                }
+                mPivotRows[k] = pivot;
+
+                // Eliminate column k from every other row in the bucket, which moves them on to
+                // the bucket of their new leading column
+                int row = mBucketHeads[k];
+                mBucketHeads[k] = -1;
+                while (row != -1) {
+                    final int next = mNextInBucket[row];
+                    if (row != pivot) {
+                        final double factor = mRowValues[row][0] / mRowValues[pivot][0];
+                        subtract(row, pivot, factor);
+                        if (mRhs != null) {
+                            mRhs[row] -= factor * mRhs[pivot];
+                        }
+                        addToBucket(row);
+                    }
+                    row = next;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * row = row - factor * pivot, dropping the leading cell (which cancels out).
+         */
+        private void subtract(int row, int pivot, double factor) {
+            final int[] aColumns = mRowColumns[row];
+            final double[] aValues = mRowValues[row];
+            final int aLength = mRowLengths[row];
+            final int[] bColumns = mRowColumns[pivot];
+            final double[] bValues = mRowValues[pivot];
+            final int bLength = mRowLengths[pivot];
+
+            if (mMergeColumns.length < aLength + bLength) {
+                mMergeColumns = new int[(aLength + bLength) * 2];
+                mMergeValues = new double[mMergeColumns.length];
+            }
+            int size = 0;
+            int a = 1;
+            int b = 1;
+            while (a < aLength || b < bLength) {
+                final int aColumn = a < aLength ? aColumns[a] : Integer.MAX_VALUE;
+                final int bColumn = b < bLength ? bColumns[b] : Integer.MAX_VALUE;
+                double value;
+                int column;
+                if (aColumn < bColumn) {
+                    column = aColumn;
+                    value = aValues[a++];
+                } else if (bColumn < aColumn) {
+                    column = bColumn;
+                    value = -factor * bValues[b++];
+                } else {
+                    column = aColumn;
+                    value = aValues[a++] - factor * bValues[b++];
+                }
+                if (value != 0) {
+                    mMergeColumns[size] = column;
+                    mMergeValues[size] = value;
+                    size++;
+                }
+            }
+            mRowColumns[row] = Arrays.copyOf(mMergeColumns, size);
+            mRowValues[row] = Arrays.copyOf(mMergeValues, size);
+            mRowLengths[row] = size;
+        }
+
+        double det() throws MatrixException {
+            if (!eliminate()) {
+                return 0;
+            }
+            double det = permutationSign();
+            for (int k = 0; k < mSize; k++) {
+                det *= mRowValues[mPivotRows[k]][0];
+            }
+            return det;
+        }
+
+        double[] solve() throws MatrixException {
+            if (!eliminate()) {
+                throw new MatrixException("Singular matrix");
+            }
+            double[] x = new double[mSize];
+            for (int k = mSize - 1; k >= 0; k--) {
+                final int row = mPivotRows[k];
+                double sum = mRhs[row];
+                for (int l = 1; l < mRowLengths[row]; l++) {
+                    sum -= mRowValues[row][l] * x[mRowColumns[row][l]];
+                }
+                x[k] = sum / mRowValues[row][0];
+            }
+            return x;
+        }
+
+        /**
+         * The sign of the permutation that takes row mPivotRows[k] to row k.
+         */
+        private int permutationSign() {
+            boolean[] visited = new boolean[mSize];
+            int sign = 1;
+            for (int i = 0; i < mSize; i++) {
+                if (visited[i]) {
+                    continue;
+                }
+                int length = 0;
+                for (int j = i; !visited[j]; j = mPivotRows[j]) {
+                    visited[j] = true;
+                    length++;
+                }
+                if (length % 2 == 0) {
+                    sign = -sign;
+                }
+            }
+            return sign;
+        }
+    }
+}
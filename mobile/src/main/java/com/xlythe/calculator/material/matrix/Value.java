@@ -0,0 +1,72 @@
+package com.xlythe.calculator.material.matrix;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * The result of a matrix expression, which is either a scalar or a matrix. Large matrices
+ * that are mostly zeros are kept in sparse form.
+ */
+public class Value {
+    // Matrices smaller than this are cheap enough to keep dense
+    private static final int SPARSE_MIN_CELLS = 1024;
+    // Matrices with at most this fraction of non-zero cells are stored sparse
+    private static final double SPARSE_MAX_DENSITY = 0.1;
+
+    private final double mScalar;
+    private final DenseMatrix64F mMatrix;
+    private final SparseMatrix mSparse;
+
+    Value(double scalar) {
+        mScalar = scalar;
+        mMatrix = null;
+        mSparse = null;
+    }
+
+    Value(DenseMatrix64F matrix) {
+        mScalar = Double.NaN;
+        mMatrix = matrix;
+        mSparse = null;
+    }
+
+    Value(SparseMatrix matrix) {
+        mScalar = Double.NaN;
+        mMatrix = null;
+        mSparse = matrix;
+    }
+
+    /**
+     * Wraps the matrix, switching to sparse storage if it's large and mostly zeros.
+     */
+    static Value of(DenseMatrix64F matrix) {
+        final int cells = matrix.getNumElements();
+        if (cells >= SPARSE_MIN_CELLS
+                && SparseMatrix.countNonZeros(matrix) <= SPARSE_MAX_DENSITY * cells) {
+            return new Value(SparseMatrix.fromDense(matrix));
+        }
+        return new Value(matrix);
+    }
+
+    public boolean isMatrix() {
+        return mMatrix != null || mSparse != null;
+    }
+
+    public boolean isSparse() {
+        return mSparse != null;
+    }
+
+    public double getScalar() {
+        return mScalar;
+    }
+
+    /**
+     * Returns the matrix in dense form. Sparse matrices are expanded, so check isSparse()
+     * first when that matters.
+     */
+    public DenseMatrix64F getMatrix() {
+        return mSparse != null ? mSparse.toDense() : mMatrix;
+    }
+
+    public SparseMatrix getSparseMatrix() {
+        return mSparse;
+    }
+}
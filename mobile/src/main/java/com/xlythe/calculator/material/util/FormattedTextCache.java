@@ -0,0 +1,147 @@
+package com.xlythe.calculator.material.util;
+
+import android.text.Html;
+import android.text.Spanned;
+
+import com.xlythe.math.Base;
+import com.xlythe.math.Constants;
+import com.xlythe.math.EquationFormatter;
+import com.xlythe.math.Solver;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Remembers how history text looks once it's been formatted (grouping, exponents, etc) so that
+ * scrolling back over a row doesn't format it again. Anything that changes the formatting
+ * (the decimal point, the grouping separator or the number base) drops the cache.
+ *
+ * Everything but the prefetching itself happens on the main thread.
+ */
+public class FormattedTextCache {
+    private static final int MAX_CACHE_SIZE = 200;
+    // A fling binds rows faster than they can be formatted, so stop queueing past this
+    private static final int MAX_IN_FLIGHT = 20;
+
+    // Shared by every cache. The Solver and formatter here are only ever used on this thread.
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static Solver sPrefetchSolver;
+    private static EquationFormatter sPrefetchFormatter;
+
+    private final Map<String, Spanned> mCache = new LinkedHashMap<String, Spanned>(MAX_CACHE_SIZE, 1f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Spanned> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+    // Texts that are queued or being formatted in the background
+    private final Set<String> mInFlight = new HashSet<>();
+    private final Solver mSolver;
+    private final EquationFormatter mEquationFormatter = new EquationFormatter();
+
+    // The settings the cached text was formatted with
+    private char mDecimalPoint;
+    private char mSeparator;
+    private Base mBase;
+    // Bumped whenever those settings change, so prefetches started before then are thrown away
+    private int mGeneration;
+
+    public FormattedTextCache(Solver solver) {
+        mSolver = solver;
+    }
+
+    public Spanned get(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        synchronized (mCache) {
+            invalidate();
+            Spanned cached = mCache.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Spanned formatted = format(mSolver, mEquationFormatter, text);
+        synchronized (mCache) {
+            mCache.put(text, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * Formats the text in the background, so it's ready by the time it scrolls into view.
+     */
+    public void prefetch(final String text) {
+        if (text == null) {
+            return;
+        }
+
+        final int generation;
+        final Base base;
+        synchronized (mCache) {
+            invalidate();
+            if (mCache.containsKey(text)
+                    || mInFlight.contains(text)
+                    || mInFlight.size() >= MAX_IN_FLIGHT) {
+                return;
+            }
+            mInFlight.add(text);
+            generation = mGeneration;
+            base = mBase;
+        }
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (sPrefetchSolver == null) {
+                    sPrefetchSolver = new Solver();
+                    sPrefetchFormatter = new EquationFormatter();
+                }
+                // Format with the settings as they were when this was asked for, not whatever
+                // the UI's Solver happens to be in right now
+                sPrefetchSolver.getBaseModule().setBase(base);
+                Spanned formatted = format(sPrefetchSolver, sPrefetchFormatter, text);
+
+                synchronized (mCache) {
+                    if (generation == mGeneration) {
+                        mInFlight.remove(text);
+                        mCache.put(text, formatted);
+                    }
+                }
+            }
+        });
+    }
+
+    public void clear() {
+        synchronized (mCache) {
+            mCache.clear();
+        }
+    }
+
+    private void invalidate() {
+        char separator = mSolver.getBaseModule().getSeparator();
+        Base base = mSolver.getBaseModule().getBase();
+        if (mDecimalPoint != Constants.DECIMAL_POINT || mSeparator != separator || mBase != base) {
+            mCache.clear();
+            mInFlight.clear();
+            mGeneration++;
+            mDecimalPoint = Constants.DECIMAL_POINT;
+            mSeparator = separator;
+            mBase = base;
+        }
+    }
+
+    private static Spanned format(Solver solver, EquationFormatter formatter, String text) {
+        if (text.matches(".*\\de[-" + Constants.MINUS + "]?\\d.*")) {
+            text = text.replace("e", Constants.MUL + "10^");
+        }
+
+        return Html.fromHtml(formatter.insertSupScripts(formatter.addComas(solver, text)));
+    }
+}
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.graphics.drawable.NinePatchDrawable;
 import android.os.SystemClock;
 import android.util.Log;
@@ -13,6 +14,7 @@ import com.xlythe.calculator.material.view.CalculatorEditText.MathSpannable;
 import com.xlythe.calculator.material.view.CalculatorEditText.SpanComponent;
 import com.xlythe.math.Constants;
 
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 /**
@@ -67,8 +69,18 @@ public class MatrixComponent extends SpanComponent {
 
     private static class MatrixSpannable extends MathSpannable {
         private static final int BLINK = 500;
+
+        // Past this many cells, columns are sized by their longest cell instead of measuring
+        // every cell, and only the cells on screen are drawn
+        private static final int MAX_MEASURED_CELLS = 64;
+
         private final Context mContext;
-        private final String[][] mData;
+        private final int mRows;
+        private final int mColumns;
+        // Row major, mRows * mColumns
+        private final String[] mCells;
+        // The length of the longest cell in each column
+        private final int[] mMaxLengths;
         private final NinePatchDrawable mBackground;
         private final Rect mBackgroundPadding = new Rect();
         private final float mMinColumnWidth;
@@ -76,6 +88,18 @@ public class MatrixComponent extends SpanComponent {
         private final long mShowCursor = SystemClock.uptimeMillis();
         private final Paint mHighlightPaint = new Paint();
 
+        // A copy of the text paint at the matrix's smaller text size, so the shared paint is
+        // never modified
+        private final Paint mCellPaint = new Paint();
+        private final Rect mClipBounds = new Rect();
+
+        // The layout below is valid for this text size and typeface
+        private float mLayoutTextSize;
+        private Typeface mLayoutTypeface;
+        // mColumnOffsets[i] is where column i starts, and mColumnOffsets[mColumns] is the total width
+        private final float[] mColumnOffsets;
+        private final float[] mBaselines;
+
         // Cached copy of the span's width
         private int mSize;
 
@@ -83,18 +107,13 @@ public class MatrixComponent extends SpanComponent {
             super(equation);
             mContext = context;
 
-            final int rows = countOccurrences(equation, '[') - 1;
-            final int columns = countOccurrences(equation, Constants.MATRIX_SEPARATOR) / rows + 1;
-
-            mData = new String[rows][columns];
-
-            String[] data = equation.split(Pattern.quote(Character.toString(Constants.MATRIX_SEPARATOR)) + "|\\]\\[");
-            for (int order = 0, row = 0; row < rows; row++) {
-                for (int column = 0; column < columns; column++) {
-                    mData[row][column] = data[order].replaceAll("[\\[\\]]", "");
-                    order++;
-                }
-            }
+            mRows = Math.max(1, countOccurrences(equation, '[') - 1);
+            mColumns = countOccurrences(equation, Constants.MATRIX_SEPARATOR) / mRows + 1;
+            mCells = new String[mRows * mColumns];
+            mMaxLengths = new int[mColumns];
+            mColumnOffsets = new float[mColumns + 1];
+            mBaselines = new float[mRows];
+            parseCells(equation);
 
             if (android.os.Build.VERSION.SDK_INT >= 21) {
                 mBackground = (NinePatchDrawable) mContext.getResources().getDrawable(R.drawable.matrix_background, null);
@@ -117,63 +136,122 @@ public class MatrixComponent extends SpanComponent {
             return count;
         }
 
-        private int getColumnSize(Paint paint, int column) {
-            float largestTextWidth = 0;
-            for (int i = 0; i < mData.length; i++) {
-                if (column < mData[i].length) {
-                    largestTextWidth = Math.max(paint.measureText(mData[i][column]), largestTextWidth);
+        /**
+         * Splits [[a,b][c,d]] into cells in a single pass. Missing cells are left blank.
+         */
+        private void parseCells(String equation) {
+            int row = -1;
+            int column = 0;
+            int cellStart = -1;
+            for (int i = 1; i < equation.length(); i++) {
+                final char c = equation.charAt(i);
+                if (c == '[') {
+                    row++;
+                    column = 0;
+                    cellStart = i + 1;
+                } else if ((c == ']' || c == Constants.MATRIX_SEPARATOR) && cellStart != -1) {
+                    if (row < mRows && column < mColumns) {
+                        setCell(row, column, equation.substring(cellStart, i));
+                    }
+                    column++;
+                    cellStart = c == ']' ? -1 : i + 1;
+                }
+            }
+            for (int i = 0; i < mCells.length; i++) {
+                if (mCells[i] == null) {
+                    mCells[i] = "";
                 }
             }
-            return (int) Math.max(mMinColumnWidth, largestTextWidth);
-        }
-
-        private void modifyPaint(Paint paint) {
-            paint.setTextSize(paint.getTextSize() / mData.length);
         }
 
-        private void restorePaint(Paint paint) {
-            paint.setTextSize(paint.getTextSize() * mData.length);
+        private void setCell(int row, int column, String cell) {
+            mCells[row * mColumns + column] = cell;
+            mMaxLengths[column] = Math.max(mMaxLengths[column], cell.length());
         }
 
-        @Override
-        public int getSize(Paint paint, CharSequence text, int start, int end, Paint.FontMetricsInt fm) {
-            if (mSize != 0) {
-                return mSize;
+        /**
+         * Works out the column offsets and baselines, but only if the paint has changed since
+         * the last time. Drawing (like blinking the cursor) reuses the result.
+         */
+        private void ensureLayout(Paint paint) {
+            if (mLayoutTextSize == paint.getTextSize() && mLayoutTypeface == paint.getTypeface()) {
+                return;
+            }
+            mLayoutTextSize = paint.getTextSize();
+            mLayoutTypeface = paint.getTypeface();
+
+            mCellPaint.set(paint);
+            mCellPaint.setTextSize(paint.getTextSize() / mRows);
+
+            final boolean measureCells = mCells.length <= MAX_MEASURED_CELLS;
+            final float digitWidth = mCellPaint.measureText("0");
+            for (int column = 0; column < mColumns; column++) {
+                float width;
+                if (measureCells) {
+                    width = 0;
+                    for (int row = 0; row < mRows; row++) {
+                        width = Math.max(width, mCellPaint.measureText(mCells[row * mColumns + column]));
+                    }
+                } else {
+                    width = mMaxLengths[column] * digitWidth;
+                }
+                mColumnOffsets[column + 1] = mColumnOffsets[column] + (int) Math.max(mMinColumnWidth, width);
             }
 
-            modifyPaint(paint);
+            final float rowHeight = mCellPaint.getTextSize();
+            for (int row = 0; row < mRows; row++) {
+                mBaselines[row] = (row + 1) * rowHeight;
+            }
 
             int padding = mBackgroundPadding.left + mBackgroundPadding.right;
-            int columnSize = 0;
-            for (int i = 0; i < mData[0].length; i++) {
-                columnSize += getColumnSize(paint, i);
-            }
-            mSize = Math.max(padding + columnSize, mBackground.getIntrinsicWidth());
+            mSize = Math.max(padding + (int) mColumnOffsets[mColumns], mBackground.getIntrinsicWidth());
+        }
 
-            restorePaint(paint);
+        /**
+         * Returns the column under the given offset from the first column's left edge.
+         */
+        private int getColumnAt(float offset) {
+            int index = Arrays.binarySearch(mColumnOffsets, offset);
+            if (index < 0) {
+                // Between two offsets, so it's in the column that starts at the lower one
+                index = -index - 2;
+            }
+            return Math.max(0, Math.min(index, mColumns - 1));
+        }
 
+        @Override
+        public int getSize(Paint paint, CharSequence text, int start, int end, Paint.FontMetricsInt fm) {
+            ensureLayout(paint);
             return mSize;
         }
 
         @Override
         public void draw(Canvas canvas, CharSequence text, int start, int end, float x, int top, int y, int bottom, Paint paint) {
+            ensureLayout(paint);
+
             // Draw the background
             mBackground.setBounds((int) x, top - mBackgroundPadding.top, (int) x + mSize, bottom + mBackgroundPadding.bottom);
             mBackground.draw(canvas);
 
-            // Draw the text
-            modifyPaint(paint);
-            float xOffset = x + mBackgroundPadding.left;
-            for (int i = 0; i < mData.length; i++) {
-                float yOffset = paint.getTextSize();
-                for (int j = 0; j < mData[i].length; j++) {
-                    String pos = mData[i][j];
-                    canvas.drawText(pos, 0, pos.length(), xOffset, yOffset, paint);
-                    yOffset += paint.getTextSize();
+            // Draw the text, skipping the cells that are off screen
+            mCellPaint.setColor(paint.getColor());
+            final float left = x + mBackgroundPadding.left;
+            if (!canvas.getClipBounds(mClipBounds)) {
+                return;
+            }
+            final int firstColumn = getColumnAt(mClipBounds.left - left);
+            final float rowHeight = mCellPaint.getTextSize();
+            for (int column = firstColumn; column < mColumns && left + mColumnOffsets[column] < mClipBounds.right; column++) {
+                final float xOffset = left + mColumnOffsets[column];
+                for (int row = 0; row < mRows; row++) {
+                    final float baseline = top + mBaselines[row];
+                    if (baseline < mClipBounds.top || baseline - rowHeight > mClipBounds.bottom) {
+                        continue;
+                    }
+                    String cell = mCells[row * mColumns + column];
+                    canvas.drawText(cell, 0, cell.length(), xOffset, baseline, mCellPaint);
                 }
-                xOffset += getColumnSize(paint, i);
             }
-            restorePaint(paint);
 
             // Draw the cursor
             // TODO cursor should be set when drawing text, to properly set x/y position
@@ -181,7 +259,7 @@ public class MatrixComponent extends SpanComponent {
                 if ((SystemClock.uptimeMillis() - mShowCursor) % (2 * BLINK) < BLINK) {
                     mHighlightPaint.setColor(paint.getColor());
                     mHighlightPaint.setStyle(Paint.Style.STROKE);
-                    canvas.drawLine(mBackgroundPadding.left, top, mBackgroundPadding.left, bottom, mHighlightPaint);
+                    canvas.drawLine(left, top, left, bottom, mHighlightPaint);
                 }
             }
         }
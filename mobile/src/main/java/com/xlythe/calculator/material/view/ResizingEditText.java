@@ -28,13 +28,25 @@ import android.widget.TextView;
 import com.xlythe.calculator.material.R;
 import com.xlythe.calculator.material.util.TextUtil;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * ResizingEditText will attempt to resize the text to as large as possible (with optional
  * max and min values). You can also use getVariableTextSize() to see what font size will
  * be used.
  */
 public class ResizingEditText extends EditText {
+    private static final int MAX_CACHE_SIZE = 32;
+
     private final Paint mTempPaint = new TextPaint();
+    // Text sizes that have already been worked out for the current constraints
+    private final Map<String, Float> mTextSizeCache = new LinkedHashMap<String, Float>(MAX_CACHE_SIZE, 1f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
     private float mMaximumTextSize;
     private float mMinimumTextSize;
     private float mStepTextSize;
@@ -104,33 +116,54 @@ public class ResizingEditText extends EditText {
             return getTextSize();
         }
 
+        Float cached = mTextSizeCache.get(text);
+        if (cached != null) {
+            return cached;
+        }
+
         // Count exponents, which aren't measured properly.
         int exponents = TextUtil.countOccurrences(text, '^');
 
-        // Step through increasing text sizes until the text would no longer fit.
-        float lastFitTextSize = mMinimumTextSize;
-        while (lastFitTextSize < mMaximumTextSize) {
-            final float nextSize = Math.min(lastFitTextSize + mStepTextSize, mMaximumTextSize);
-            mTempPaint.setTextSize(nextSize);
-            if (mTempPaint.measureText(text) > mWidthConstraint) {
-                break;
-            } else if (nextSize + nextSize * exponents / 2 > mHeightConstraint) {
-                break;
+        // Binary search for the largest step that still fits. Both width and height grow with
+        // the text size, so every step below a fitting one fits as well. The smallest size is
+        // used even if it doesn't fit.
+        final int steps = mStepTextSize > 0
+                ? (int) Math.ceil((mMaximumTextSize - mMinimumTextSize) / mStepTextSize) : 1;
+        int low = 0;
+        int high = steps;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            final float size = getStepTextSize(mid);
+            mTempPaint.setTextSize(size);
+            if (mTempPaint.measureText(text) <= mWidthConstraint
+                    && size + size * exponents / 2 <= mHeightConstraint) {
+                low = mid;
             } else {
-                lastFitTextSize = nextSize;
+                high = mid - 1;
             }
         }
 
-        return lastFitTextSize;
+        final float textSize = getStepTextSize(low);
+        mTextSizeCache.put(text, textSize);
+        return textSize;
+    }
+
+    private float getStepTextSize(int step) {
+        return Math.min(mMinimumTextSize + step * mStepTextSize, mMaximumTextSize);
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        mWidthConstraint =
+        final int widthConstraint =
                 MeasureSpec.getSize(widthMeasureSpec) - getPaddingLeft() - getPaddingRight();
-        mHeightConstraint =
+        final int heightConstraint =
                 MeasureSpec.getSize(heightMeasureSpec) - getPaddingTop() - getPaddingBottom();
+        if (widthConstraint != mWidthConstraint || heightConstraint != mHeightConstraint) {
+            mWidthConstraint = widthConstraint;
+            mHeightConstraint = heightConstraint;
+            mTextSizeCache.clear();
+        }
         setTextSize(TypedValue.COMPLEX_UNIT_PX, getVariableTextSize(getText().toString()));
     }
 
@@ -3,25 +3,24 @@ package com.xlythe.calculator.material.widget;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.preference.PreferenceManager;
 import android.view.View;
 import android.widget.RemoteViews;
 
 import com.xlythe.calculator.material.CalculatorExpressionTokenizer;
+import com.xlythe.calculator.material.HistoryRepository;
 import com.xlythe.calculator.material.R;
-import com.xlythe.math.Base;
 import com.xlythe.math.Constants;
 import com.xlythe.math.EquationFormatter;
-import com.xlythe.math.History;
-import com.xlythe.math.Persist;
 import com.xlythe.math.Solver;
 
 import org.javia.arity.SyntaxException;
 
 import java.text.DecimalFormatSymbols;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CalculatorWidget extends AppWidgetProvider {
     public final static String PREFERENCE_WIDGET_PREAMBLE = "com.xlythe.calculator.material.CALC_WIDGET_VALUE_";
@@ -43,7 +42,18 @@ public class CalculatorWidget extends AppWidgetProvider {
     public static final String EQUALS = "com.xlythe.calculator.material.equals";
     public static final String CLR = "com.xlythe.calculator.material.clear";
     public static final String DEL = "com.xlythe.calculator.material.delete";
-    public static final String SHOW_CLEAR = "com.xlythe.calculator.material.show_clear";
+
+    // Taps are handled in order, one at a time, off the main thread
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    // Taps that have been received but not handled yet. History and widget state are written
+    // once they're done.
+    private static final AtomicInteger sPendingTaps = new AtomicInteger();
+    private static boolean sHistoryChanged;
+
+    // Only touched from sExecutor, so they're safe to share between taps
+    private static CalculatorExpressionTokenizer sTokenizer;
+    private static Solver sSolver;
+    private static EquationFormatter sFormatter;
 
     private boolean mClearText = false;
 
@@ -52,10 +62,6 @@ public class CalculatorWidget extends AppWidgetProvider {
         return dfs.getDecimalSeparator() + "";
     }
 
-    private static void setValue(Context context, int appWidgetId, String newValue) {
-        PreferenceManager.getDefaultSharedPreferences(context).edit().putString(PREFERENCE_WIDGET_PREAMBLE + appWidgetId, newValue).commit();
-    }
-
     private static String addOperator(String equation, char op) {
         if (equation.length() > 0) {
             // Grab the last character to see if it's an operator
@@ -76,17 +82,52 @@ public class CalculatorWidget extends AppWidgetProvider {
         return equation;
     }
 
-    private static String getValue(Context context, int appWidgetId) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getString(PREFERENCE_WIDGET_PREAMBLE + appWidgetId, "");
+
+    private static void initEngine(Context context) {
+        if (sSolver == null) {
+            sTokenizer = new CalculatorExpressionTokenizer(context.getApplicationContext());
+            sSolver = new Solver();
+            sSolver.setLineLength(7);
+            sFormatter = new EquationFormatter();
+        }
     }
 
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(final Context context, final Intent intent) {
+        // Solving and saving history can be slow, so the receiver stays alive while the
+        // work is done in the background
+        final PendingResult result = goAsync();
+        sPendingTaps.incrementAndGet();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    initEngine(context);
+                    handleIntent(context, intent);
+                } finally {
+                    // Quick taps are saved together, once the last one is handled
+                    if (sPendingTaps.decrementAndGet() == 0) {
+                        WidgetStateStore.getInstance(context).save();
+                        if (sHistoryChanged) {
+                            sHistoryChanged = false;
+                            HistoryRepository.getInstance(context).flushNow();
+                        }
+                    }
+                    result.finish();
+                }
+            }
+        });
+    }
+
+    private void handleIntent(Context context, Intent intent) {
         int appWidgetId = intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, 0);
-        String value = getValue(context, appWidgetId);
-        CalculatorExpressionTokenizer tokenizer = new CalculatorExpressionTokenizer(context);
+        final WidgetStateStore store = WidgetStateStore.getInstance(context);
+        final WidgetStateStore.State state = store.get(appWidgetId);
+        final String previousValue = state.value;
+        String value = previousValue;
+        final boolean previousClearText = state.clearText;
         if (value.equals(context.getResources().getString(R.string.error))) value = "";
-        mClearText = intent.getBooleanExtra(SHOW_CLEAR, false);
+        mClearText = previousClearText;
 
         if (intent.getAction().equals(DIGIT_0)) {
             if (mClearText) {
@@ -172,35 +213,42 @@ public class CalculatorWidget extends AppWidgetProvider {
             final String input = value;
             if (input.isEmpty()) return;
 
-            final Solver logic = new Solver();
-            logic.setLineLength(7);
-
             try {
-                value = tokenizer.getLocalizedExpression(logic.solve(tokenizer.getNormalizedExpression(input)));
+                value = sTokenizer.getLocalizedExpression(sSolver.solve(sTokenizer.getNormalizedExpression(input)));
             } catch (SyntaxException e) {
                 value = context.getResources().getString(R.string.error);
             }
 
             // Try to save it to history
             if (!value.equals(context.getResources().getString(R.string.error))) {
-                final Persist persist = new Persist(context);
-                persist.load();
-                if (persist.getMode() == null) persist.setMode(Base.DECIMAL);
-                final History history = persist.getHistory();
-                history.enter(input, value);
-                persist.save();
+                HistoryRepository.getInstance(context).enter(input, value);
+                sHistoryChanged = true;
             }
         } else if (intent.getAction().equals(CLR)) {
             value = "";
         } else if (intent.getAction().equals(DEL)) {
             if (value.length() > 0) value = value.substring(0, value.length() - 1);
         }
-        setValue(context, appWidgetId, value);
+        if (value.equals(previousValue) && mClearText == previousClearText) {
+            // Nothing on screen changed (eg. deleting from an empty display), so skip the update
+            super.onReceive(context, intent);
+            return;
+        }
+        // The clear flag is saved rather than sent along with the click, so the buttons'
+        // pending intents never have to change
+        store.put(appWidgetId, new WidgetStateStore.State(value, mClearText));
 
-        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(context, CalculatorWidget.class));
-        for (int appWidgetID : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetID);
+        // Only the widget that was tapped changed, and only its display and clear/delete toggle
+        RemoteViews remoteViews = new RemoteViews(context.getPackageName(), R.layout.widget);
+        if (!value.equals(previousValue)) {
+            setDisplay(remoteViews, value);
+        }
+        if (mClearText != previousClearText) {
+            setClearButton(remoteViews, mClearText);
+        }
+        try {
+            AppWidgetManager.getInstance(context).partiallyUpdateAppWidget(appWidgetId, remoteViews);
+        } catch (Exception e) {
         }
         super.onReceive(context, intent);
     }
@@ -212,32 +260,49 @@ public class CalculatorWidget extends AppWidgetProvider {
         }
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        WidgetStateStore store = WidgetStateStore.getInstance(context);
+        for (int appWidgetId : appWidgetIds) {
+            store.remove(appWidgetId);
+        }
+    }
+
+    /**
+     * Builds the whole widget, including its buttons' pending intents. Key presses only
+     * partially update it afterwards.
+     */
     private void updateAppWidget(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
         RemoteViews remoteViews = new RemoteViews(context.getPackageName(), R.layout.widget);
 
-        String value = getValue(context, appWidgetId);
+        WidgetStateStore.State state = WidgetStateStore.getInstance(context).get(appWidgetId);
+        setDisplay(remoteViews, state.value);
+        setClearButton(remoteViews, state.clearText);
+        setOnClickListeners(context, appWidgetId, remoteViews);
 
-        EquationFormatter formatter = new EquationFormatter();
-        value = formatter.addComas(new Solver(), value);
+        try {
+            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+        } catch (Exception e) {
+        }
+    }
+
+    private static void setDisplay(RemoteViews remoteViews, String value) {
+        value = sFormatter.addComas(sSolver, value);
 
         int displayId = android.os.Build.VERSION.SDK_INT > android.os.Build.VERSION_CODES.JELLY_BEAN_MR1 ? R.id.display_long_clickable : R.id.display;
 
         remoteViews.setViewVisibility(displayId, View.VISIBLE);
         remoteViews.setTextViewText(displayId, value);
-        remoteViews.setViewVisibility(R.id.delete, mClearText ? View.GONE : View.VISIBLE);
-        remoteViews.setViewVisibility(R.id.clear, mClearText ? View.VISIBLE : View.GONE);
-        setOnClickListeners(context, appWidgetId, remoteViews);
+    }
 
-        try {
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
-        } catch (Exception e) {
-        }
+    private static void setClearButton(RemoteViews remoteViews, boolean clearText) {
+        remoteViews.setViewVisibility(R.id.delete, clearText ? View.GONE : View.VISIBLE);
+        remoteViews.setViewVisibility(R.id.clear, clearText ? View.VISIBLE : View.GONE);
     }
 
     private void setOnClickListeners(Context context, int appWidgetId, RemoteViews remoteViews) {
         final Intent intent = new Intent(context, CalculatorWidget.class);
         intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
-        intent.putExtra(SHOW_CLEAR, mClearText);
 
         // The pending intent request code must be unique
         // Not just for these 17 buttons, but for each widget as well
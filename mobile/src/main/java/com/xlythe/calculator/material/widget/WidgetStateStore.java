@@ -0,0 +1,114 @@
+package com.xlythe.calculator.material.widget;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.SparseArray;
+
+/**
+ * Remembers what each widget is showing: its expression, and whether the next digit should
+ * clear it. The state lives in its own small preferences file, so a key press doesn't
+ * rewrite the app's settings, and changes are kept in memory until save() writes them all in
+ * a single commit.
+ */
+class WidgetStateStore {
+    private static final String PREFERENCES = "widget_state";
+    private static final String KEY_VALUE = "value_";
+    private static final String KEY_CLEAR = "clear_";
+
+    private static WidgetStateStore sInstance;
+
+    static synchronized WidgetStateStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WidgetStateStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+    private final SparseArray<State> mStates = new SparseArray<>();
+    private final SparseArray<State> mDirty = new SparseArray<>();
+
+    private WidgetStateStore(Context context) {
+        mContext = context;
+        mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    synchronized State get(int appWidgetId) {
+        State state = mStates.get(appWidgetId);
+        if (state == null) {
+            state = read(appWidgetId);
+            mStates.put(appWidgetId, state);
+        }
+        return state;
+    }
+
+    synchronized void put(int appWidgetId, State state) {
+        mStates.put(appWidgetId, state);
+        mDirty.put(appWidgetId, state);
+    }
+
+    synchronized void remove(int appWidgetId) {
+        mStates.remove(appWidgetId);
+        mDirty.put(appWidgetId, null);
+    }
+
+    /**
+     * Writes every change since the last save in one go. Blocks until it's on disk, so call it
+     * off the main thread and before the process is allowed to die.
+     */
+    synchronized void save() {
+        if (mDirty.size() == 0) {
+            return;
+        }
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (int i = 0; i < mDirty.size(); i++) {
+            int appWidgetId = mDirty.keyAt(i);
+            State state = mDirty.valueAt(i);
+            if (state == null) {
+                editor.remove(KEY_VALUE + appWidgetId)
+                        .remove(KEY_CLEAR + appWidgetId);
+            } else {
+                editor.putString(KEY_VALUE + appWidgetId, state.value)
+                        .putBoolean(KEY_CLEAR + appWidgetId, state.clearText);
+            }
+        }
+        editor.commit();
+        mDirty.clear();
+    }
+
+    private State read(int appWidgetId) {
+        if (!mPreferences.contains(KEY_VALUE + appWidgetId)) {
+            return migrate(appWidgetId);
+        }
+        return new State(
+                mPreferences.getString(KEY_VALUE + appWidgetId, ""),
+                mPreferences.getBoolean(KEY_CLEAR + appWidgetId, false));
+    }
+
+    /**
+     * Older versions kept the expression in the default preferences. Move it over, so the
+     * widget doesn't go blank after an update.
+     */
+    private State migrate(int appWidgetId) {
+        SharedPreferences legacy = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = CalculatorWidget.PREFERENCE_WIDGET_PREAMBLE + appWidgetId;
+        State state = new State(legacy.getString(key, ""), false);
+        if (legacy.contains(key)) {
+            legacy.edit().remove(key).apply();
+            mDirty.put(appWidgetId, state);
+        }
+        return state;
+    }
+
+    static class State {
+        final String value;
+        final boolean clearText;
+
+        State(String value, boolean clearText) {
+            this.value = value;
+            this.clearText = clearText;
+        }
+    }
+}
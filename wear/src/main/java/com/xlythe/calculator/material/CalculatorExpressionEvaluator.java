@@ -21,11 +21,17 @@ import com.xlythe.math.Solver;
 import org.javia.arity.SyntaxException;
 
 public class CalculatorExpressionEvaluator {
+    // A watch face only fits a handful of digits, so there's no point in working out (and then
+    // formatting) as many as the phone does
+    private static final int LINE_LENGTH = 8;
+
     private final Solver mSolver;
     private final CalculatorExpressionTokenizer mTokenizer;
+    private RemoteEvaluator mRemoteEvaluator;
 
     public CalculatorExpressionEvaluator(CalculatorExpressionTokenizer tokenizer) {
         mSolver = new Solver();
+        mSolver.setLineLength(LINE_LENGTH);
         mTokenizer = tokenizer;
     }
 
@@ -50,6 +56,37 @@ public class CalculatorExpressionEvaluator {
             // expr is not a simple number
         }
 
+        if (mRemoteEvaluator != null && RemoteEvaluator.isExpensive(expr)) {
+            solveRemotely(expr, callback);
+            return;
+        }
+        solveLocally(expr, callback);
+    }
+
+    /**
+     * Sends the expression to the phone, falling back to the watch's Solver if the phone
+     * doesn't answer in time.
+     */
+    private void solveRemotely(final String expr, final EvaluateCallback callback) {
+        mRemoteEvaluator.evaluate(expr, new RemoteEvaluator.Callback() {
+            @Override
+            public void onResult(String result) {
+                callback.onEvaluate(expr, mTokenizer.getLocalizedExpression(result), MainActivity.INVALID_RES_ID);
+            }
+
+            @Override
+            public void onError() {
+                callback.onEvaluate(expr, null, R.string.error);
+            }
+
+            @Override
+            public void onFallback() {
+                solveLocally(expr, callback);
+            }
+        });
+    }
+
+    private void solveLocally(String expr, EvaluateCallback callback) {
         try {
             String result = mSolver.solve(expr);
             result = mTokenizer.getLocalizedExpression(result);
@@ -68,6 +105,13 @@ public class CalculatorExpressionEvaluator {
         }
     }
 
+    /**
+     * Lets expensive expressions be solved elsewhere. Pass null to solve everything locally.
+     */
+    public void setRemoteEvaluator(RemoteEvaluator remoteEvaluator) {
+        mRemoteEvaluator = remoteEvaluator;
+    }
+
     public Solver getSolver() {
         return mSolver;
     }
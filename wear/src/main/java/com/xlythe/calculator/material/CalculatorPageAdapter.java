@@ -21,7 +21,9 @@ public class CalculatorPageAdapter extends PagerAdapter {
     private final View.OnClickListener mListener;
     private final HistoryAdapter.HistoryItemCallback mHistoryCallback;
     private final Solver mSolver;
-    private final History mHistory;
+    private History mHistory;
+    private HistoryAdapter mHistoryAdapter;
+    private History.Observer mHistoryObserver;
     private final View[] mViews = new View[3];
 
     public CalculatorPageAdapter(
@@ -143,15 +145,47 @@ public class CalculatorPageAdapter extends PagerAdapter {
         layoutManager.setStackFromEnd(true);
         historyView.setLayoutManager(layoutManager);
 
-        final HistoryAdapter historyAdapter = new HistoryAdapter(mContext, mSolver, mHistory, mHistoryCallback);
-        mHistory.setObserver(new History.Observer() {
+        mHistoryAdapter = new HistoryAdapter(mContext, mSolver, mHistory, mHistoryCallback);
+        if (mHistory != null) {
+            observe();
+        }
+        historyView.setAdapter(mHistoryAdapter);
+
+        layoutManager.scrollToPosition(mHistoryAdapter.getItemCount() - 1);
+    }
+
+    /**
+     * Called once the history has been loaded. Until then, the history page is empty.
+     */
+    public void setHistory(History history) {
+        mHistory = history;
+        if (mHistoryAdapter != null) {
+            observe();
+            mHistoryAdapter.setHistory(mHistory);
+        }
+    }
+
+    private void observe() {
+        if (mHistoryObserver != null) {
+            return;
+        }
+        // The history itself only takes one observer, and that's the repository
+        mHistoryObserver = new History.Observer() {
             @Override
             public void notifyDataSetChanged() {
-                historyAdapter.notifyDataSetChanged();
+                mHistoryAdapter.notifyDataSetChanged();
             }
-        });
-        historyView.setAdapter(historyAdapter);
+        };
+        HistoryRepository.getInstance(mContext).addObserver(mHistoryObserver);
+    }
 
-        layoutManager.scrollToPosition(historyAdapter.getItemCount() - 1);
+    /**
+     * Stops listening to the shared history. Call once the adapter is no longer shown.
+     */
+    public void release() {
+        if (mHistoryObserver != null) {
+            HistoryRepository.getInstance(mContext).removeObserver(mHistoryObserver);
+            mHistoryObserver = null;
+        }
     }
 }
@@ -0,0 +1,32 @@
+package com.xlythe.calculator.material;
+
+/**
+ * Somewhere, other than this watch, that can solve an expression. Expressions and results
+ * are passed in their normalized form (see CalculatorExpressionTokenizer), so both ends can
+ * use different locales.
+ */
+public interface EvaluationTransport {
+    void connect();
+
+    void disconnect();
+
+    /**
+     * Asks for expr to be solved. The callback is called at most once, on any thread, and may
+     * never be called at all if the other end goes away.
+     */
+    void evaluate(String expr, Callback callback);
+
+    interface Callback {
+        void onResult(String result);
+
+        /**
+         * The expression was received, but it couldn't be solved.
+         */
+        void onError();
+
+        /**
+         * The expression couldn't be sent, eg. because there's no phone connected.
+         */
+        void onUnavailable();
+    }
+}
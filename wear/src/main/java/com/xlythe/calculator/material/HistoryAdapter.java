@@ -31,23 +31,32 @@ import com.xlythe.math.History;
 import com.xlythe.math.HistoryEntry;
 import com.xlythe.math.Solver;
 
+import java.util.Collections;
 import java.util.List;
 
 public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHolder> {
     private final Context mContext;
     private final Solver mSolver;
-    private final List<HistoryEntry> mEntries;
+    private List<HistoryEntry> mEntries;
     private final EquationFormatter mEquationFormatter;
     protected HistoryItemCallback mCallback;
 
     public HistoryAdapter(Context context, Solver solver, History history, HistoryItemCallback callback) {
         mContext = context;
         mSolver = solver;
-        mEntries = history.getEntries();
+        mEntries = history == null ? Collections.<HistoryEntry>emptyList() : history.getEntries();
         mEquationFormatter = new EquationFormatter();
         mCallback = callback;
     }
 
+    /**
+     * Swaps in the history once it has finished loading.
+     */
+    public void setHistory(History history) {
+        mEntries = history.getEntries();
+        notifyDataSetChanged();
+    }
+
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(getContext()).inflate(getLayoutResourceId(), parent, false);
@@ -0,0 +1,35 @@
+package com.xlythe.calculator.material;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+/**
+ * Reads the saved history on a background thread. Parsing the history file used to happen
+ * before the first frame was drawn, so cold start grew with the size of the history.
+ * The history is shared through HistoryRepository, so it's only read once per process.
+ */
+public class HistoryLoader extends AsyncTask<Void, Void, HistoryRepository> {
+    private final Context mContext;
+    private final Callback mCallback;
+
+    public HistoryLoader(Context context, Callback callback) {
+        mContext = context.getApplicationContext();
+        mCallback = callback;
+    }
+
+    @Override
+    protected HistoryRepository doInBackground(Void... params) {
+        HistoryRepository repository = HistoryRepository.getInstance(mContext);
+        repository.getHistory();
+        return repository;
+    }
+
+    @Override
+    protected void onPostExecute(HistoryRepository repository) {
+        mCallback.onHistoryLoaded(repository);
+    }
+
+    public interface Callback {
+        void onHistoryLoaded(HistoryRepository repository);
+    }
+}
@@ -0,0 +1,280 @@
+package com.xlythe.calculator.material;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps the phone's and the watch's history in step by sending each other only what's new.
+ *
+ * Every entry made on this device gets the next sequence number and goes into an outbox. The
+ * outbox is sent, all of it in one batch, a few seconds after the last change. The other
+ * device adds whatever it hasn't seen yet and acknowledges the highest sequence number it
+ * has, and acknowledged entries are dropped from the outbox. Entries that arrive from the other
+ * device aren't sent back.
+ *
+ * Sequence numbers start over when the app is reinstalled or its data is cleared, so batches
+ * and acknowledgements carry a random id for the install that made them. When the other
+ * device's id changes, we forget what we knew about it.
+ *
+ * Nothing is queued until the other device has been seen, and the outbox is capped, so a
+ * phone without a watch doesn't collect entries nobody will ever acknowledge.
+ *
+ * Only additions are synced. Removing an entry on one device leaves it on the other.
+ */
+public class HistorySync {
+    private static final String PREFERENCES = "history_sync";
+    private static final String KEY_INSTALL_ID = "install_id";
+    private static final String KEY_PEER_ID = "peer_id";
+    private static final String KEY_HAS_PEER = "has_peer";
+    private static final String KEY_NEXT_SEQUENCE = "next_sequence";
+    private static final String KEY_ACKNOWLEDGED = "acknowledged";
+    private static final String KEY_RECEIVED = "received";
+    private static final String KEY_OUTBOX = "outbox";
+
+    // How long to wait for more entries before sending what we have
+    private static final long SEND_DELAY = 5000;
+    // The oldest entries are dropped past this, which also keeps a batch well under the size
+    // limit of a data item
+    private static final int MAX_OUTBOX = 100;
+
+    private static HistorySync sInstance;
+
+    public static synchronized HistorySync getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new HistorySync(appContext, PREFERENCES, new Sink() {
+                @Override
+                public void onRemoteEntry(Entry entry) {
+                    HistoryRepository.getInstance(appContext).enterFromSync(entry.formula, entry.result);
+                }
+            });
+            sInstance.setTransport(new DataLayerSyncTransport(appContext));
+        }
+        return sInstance;
+    }
+
+    private final SharedPreferences mPreferences;
+    private final Sink mSink;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private HistorySyncTransport mTransport;
+
+    private final String mInstallId;
+    // Whether there's another device to sync with at all
+    private boolean mHasPeer;
+    // Our entries that the other device hasn't acknowledged yet
+    private final List<Entry> mOutbox;
+    private long mNextSequence;
+    // The other device's install id, and the highest of its sequence numbers that we've added
+    private String mPeerId;
+    private long mReceived;
+
+    private final Runnable mSendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            List<Entry> entries;
+            synchronized (HistorySync.this) {
+                entries = new ArrayList<>(mOutbox);
+            }
+            if (!entries.isEmpty()) {
+                mTransport.sendEntries(mInstallId, entries);
+            }
+        }
+    };
+
+    /**
+     * Each instance keeps its state in its own preferences file, so two of them can be wired to
+     * each other through a LocalSyncTransport.
+     */
+    HistorySync(Context context, String preferences, Sink sink) {
+        mPreferences = context.getSharedPreferences(preferences, Context.MODE_PRIVATE);
+        mSink = sink;
+
+        String installId = mPreferences.getString(KEY_INSTALL_ID, null);
+        if (installId == null) {
+            installId = UUID.randomUUID().toString();
+            mPreferences.edit().putString(KEY_INSTALL_ID, installId).apply();
+        }
+        mInstallId = installId;
+
+        mHasPeer = mPreferences.getBoolean(KEY_HAS_PEER, false);
+        mNextSequence = mPreferences.getLong(KEY_NEXT_SEQUENCE, 1);
+        mPeerId = mPreferences.getString(KEY_PEER_ID, null);
+        mReceived = mPreferences.getLong(KEY_RECEIVED, 0);
+        mOutbox = Entry.decode(mPreferences.getString(KEY_OUTBOX, ""));
+    }
+
+    public void setTransport(HistorySyncTransport transport) {
+        mTransport = transport;
+        synchronized (this) {
+            if (!mOutbox.isEmpty()) {
+                // Whatever didn't get through last time
+                scheduleSend();
+            }
+        }
+        if (!mHasPeer) {
+            mTransport.findPeer(new HistorySyncTransport.PeerCallback() {
+                @Override
+                public void onPeerFound() {
+                    onPeerSeen();
+                }
+            });
+        }
+    }
+
+    /**
+     * Called when an entry is made on this device.
+     */
+    public synchronized void onLocalEntry(String formula, String result) {
+        if (!mHasPeer) {
+            return;
+        }
+        mOutbox.add(new Entry(mNextSequence++, System.currentTimeMillis(), formula, result));
+        while (mOutbox.size() > MAX_OUTBOX) {
+            mOutbox.remove(0);
+        }
+        mPreferences.edit()
+                .putLong(KEY_NEXT_SEQUENCE, mNextSequence)
+                .putString(KEY_OUTBOX, Entry.encode(mOutbox))
+                .apply();
+        scheduleSend();
+    }
+
+    /**
+     * Called with a batch from the other device. Entries we've already got are skipped, so
+     * batches can safely be sent more than once.
+     */
+    public void onEntriesReceived(String peerId, List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+        });
+
+        List<Entry> added = new ArrayList<>();
+        long received;
+        synchronized (this) {
+            onPeerSeen();
+            checkPeerId(peerId);
+            for (Entry entry : sorted) {
+                if (entry.sequence > mReceived) {
+                    added.add(entry);
+                    mReceived = entry.sequence;
+                }
+            }
+            received = mReceived;
+            mPreferences.edit().putLong(KEY_RECEIVED, mReceived).apply();
+        }
+
+        for (Entry entry : added) {
+            mSink.onRemoteEntry(entry);
+        }
+        mTransport.sendAcknowledgement(mInstallId, peerId, received);
+    }
+
+    /**
+     * Called when the other device tells us the highest sequence number of ours it has.
+     * installId is the install of ours it's acknowledging, which may be one from before the
+     * app was reinstalled.
+     */
+    public synchronized void onAcknowledgementReceived(String peerId, String installId, long sequence) {
+        onPeerSeen();
+        checkPeerId(peerId);
+        if (!mInstallId.equals(installId)
+                || sequence < mPreferences.getLong(KEY_ACKNOWLEDGED, 0)) {
+            return;
+        }
+        for (int i = mOutbox.size() - 1; i >= 0; i--) {
+            if (mOutbox.get(i).sequence <= sequence) {
+                mOutbox.remove(i);
+            }
+        }
+        mPreferences.edit()
+                .putLong(KEY_ACKNOWLEDGED, sequence)
+                .putString(KEY_OUTBOX, Entry.encode(mOutbox))
+                .apply();
+    }
+
+    private synchronized void onPeerSeen() {
+        if (!mHasPeer) {
+            mHasPeer = true;
+            mPreferences.edit().putBoolean(KEY_HAS_PEER, true).apply();
+        }
+    }
+
+    /**
+     * Forgets what we knew about the other device if it has been reinstalled since.
+     */
+    private void checkPeerId(String peerId) {
+        if (peerId.equals(mPeerId)) {
+            return;
+        }
+        mPeerId = peerId;
+        mReceived = 0;
+        mPreferences.edit()
+                .putString(KEY_PEER_ID, peerId)
+                .putLong(KEY_RECEIVED, 0)
+                .putLong(KEY_ACKNOWLEDGED, 0)
+                .apply();
+    }
+
+    private void scheduleSend() {
+        mHandler.removeCallbacks(mSendRunnable);
+        mHandler.postDelayed(mSendRunnable, SEND_DELAY);
+    }
+
+    public static class Entry {
+        public final long sequence;
+        public final long timestamp;
+        public final String formula;
+        public final String result;
+
+        public Entry(long sequence, long timestamp, String formula, String result) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.formula = formula;
+            this.result = result;
+        }
+
+        // One entry per line, fields separated by tabs. Neither shows up in an equation.
+        static String encode(List<Entry> entries) {
+            StringBuilder builder = new StringBuilder();
+            for (Entry entry : entries) {
+                builder.append(entry.sequence).append('\t')
+                        .append(entry.timestamp).append('\t')
+                        .append(entry.formula).append('\t')
+                        .append(entry.result).append('\n');
+            }
+            return builder.toString();
+        }
+
+        static List<Entry> decode(String encoded) {
+            List<Entry> entries = new ArrayList<>();
+            for (String line : encoded.split("\n")) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4) {
+                    continue;
+                }
+                try {
+                    entries.add(new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2], fields[3]));
+                } catch (NumberFormatException e) {
+                    // Skip anything we can't read rather than losing the rest
+                }
+            }
+            return entries;
+        }
+    }
+
+    public interface Sink {
+        void onRemoteEntry(Entry entry);
+    }
+}
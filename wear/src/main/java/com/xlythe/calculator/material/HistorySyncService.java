@@ -0,0 +1,85 @@
+package com.xlythe.calculator.material;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.Wearable;
+import com.google.android.gms.wearable.WearableListenerService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands history sent by the other device over to HistorySync.
+ */
+public class HistorySyncService extends WearableListenerService {
+    private static final String TAG = HistorySyncService.class.getSimpleName();
+    private static final long CONNECTION_TIMEOUT = 5;
+
+    private GoogleApiClient mClient;
+    private String mLocalNodeId;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mClient = new GoogleApiClient.Builder(this).addApi(Wearable.API).build();
+    }
+
+    @Override
+    public void onDestroy() {
+        mClient.disconnect();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        // Events are delivered on a background thread, so it's fine to block here
+        String localNodeId = getLocalNodeId();
+        if (localNodeId == null) {
+            Log.w(TAG, "Couldn't connect to read synced history");
+            return;
+        }
+
+        HistorySync sync = HistorySync.getInstance(this);
+        for (DataEvent event : dataEvents) {
+            if (event.getType() != DataEvent.TYPE_CHANGED) {
+                continue;
+            }
+            DataItem item = event.getDataItem();
+            if (localNodeId.equals(item.getUri().getHost())) {
+                // Our own items show up here too
+                continue;
+            }
+
+            DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
+            String path = item.getUri().getPath();
+            String peerId = dataMap.getString(DataLayerSyncTransport.KEY_INSTALL_ID);
+            if (peerId == null) {
+                Log.w(TAG, "Ignoring history from an unknown install");
+                continue;
+            }
+            if (DataLayerSyncTransport.PATH_ENTRIES.equals(path)) {
+                sync.onEntriesReceived(peerId, DataLayerSyncTransport.readEntries(dataMap));
+            } else if (DataLayerSyncTransport.PATH_ACKNOWLEDGEMENT.equals(path)) {
+                sync.onAcknowledgementReceived(peerId,
+                        dataMap.getString(DataLayerSyncTransport.KEY_PEER_INSTALL_ID),
+                        dataMap.getLong(DataLayerSyncTransport.KEY_SEQUENCE));
+            }
+        }
+    }
+
+    private String getLocalNodeId() {
+        if (mLocalNodeId == null) {
+            if (!mClient.isConnected()
+                    && !mClient.blockingConnect(CONNECTION_TIMEOUT, TimeUnit.SECONDS).isSuccess()) {
+                return null;
+            }
+            mLocalNodeId = Wearable.NodeApi.getLocalNode(mClient).await().getNode().getId();
+        }
+        return mLocalNodeId;
+    }
+}
@@ -0,0 +1,31 @@
+package com.xlythe.calculator.material;
+
+import java.util.List;
+
+/**
+ * How HistorySync reaches the other device. Whatever arrives on the other end should be handed
+ * to its HistorySync's onEntriesReceived() and onAcknowledgementReceived().
+ */
+public interface HistorySyncTransport {
+    /**
+     * Sends a batch of entries made by the given install. May be called again with the same
+     * entries if they weren't acknowledged.
+     */
+    void sendEntries(String installId, List<HistorySync.Entry> entries);
+
+    /**
+     * Tells the other device, whose install is peerInstallId, the highest of its sequence
+     * numbers we've added.
+     */
+    void sendAcknowledgement(String installId, String peerInstallId, long sequence);
+
+    /**
+     * Looks for the other device, off the calling thread. The callback is only called if
+     * there is one.
+     */
+    void findPeer(PeerCallback callback);
+
+    interface PeerCallback {
+        void onPeerFound();
+    }
+}
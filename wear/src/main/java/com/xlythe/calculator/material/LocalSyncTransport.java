@@ -0,0 +1,35 @@
+package com.xlythe.calculator.material;
+
+import java.util.List;
+
+/**
+ * Delivers straight to another HistorySync in the same process, in place of the Data Layer.
+ * Wire two of them together with pair() to try out syncing without a second device.
+ */
+public class LocalSyncTransport implements HistorySyncTransport {
+    private final HistorySync mPeer;
+
+    public LocalSyncTransport(HistorySync peer) {
+        mPeer = peer;
+    }
+
+    public static void pair(HistorySync a, HistorySync b) {
+        a.setTransport(new LocalSyncTransport(b));
+        b.setTransport(new LocalSyncTransport(a));
+    }
+
+    @Override
+    public void sendEntries(String installId, List<HistorySync.Entry> entries) {
+        mPeer.onEntriesReceived(installId, entries);
+    }
+
+    @Override
+    public void sendAcknowledgement(String installId, String peerInstallId, long sequence) {
+        mPeer.onAcknowledgementReceived(installId, peerInstallId, sequence);
+    }
+
+    @Override
+    public void findPeer(PeerCallback callback) {
+        callback.onPeerFound();
+    }
+}
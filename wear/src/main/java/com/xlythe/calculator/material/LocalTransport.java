@@ -0,0 +1,49 @@
+package com.xlythe.calculator.material;
+
+import com.xlythe.math.Solver;
+
+import org.javia.arity.SyntaxException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stands in for the phone by solving on a background thread of the watch itself, after an
+ * optional delay. Useful for trying out offloading (timeouts included) on an emulator, or
+ * anywhere without a paired phone.
+ */
+public class LocalTransport implements EvaluationTransport {
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Solver mSolver = new Solver();
+    private final long mDelay;
+
+    public LocalTransport(long delay) {
+        mDelay = delay;
+    }
+
+    @Override
+    public void connect() {}
+
+    @Override
+    public void disconnect() {}
+
+    @Override
+    public void evaluate(final String expr, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(mDelay);
+                } catch (InterruptedException e) {
+                    callback.onUnavailable();
+                    return;
+                }
+                try {
+                    callback.onResult(mSolver.solve(expr));
+                } catch (SyntaxException e) {
+                    callback.onError();
+                }
+            }
+        });
+    }
+}
@@ -1,6 +1,7 @@
 package com.xlythe.calculator.material;
 
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.view.ViewPager;
 import android.support.v7.widget.RecyclerView;
@@ -19,9 +20,10 @@ import com.xlythe.math.Constants;
 import com.xlythe.math.EquationFormatter;
 import com.xlythe.math.History;
 import com.xlythe.math.HistoryEntry;
-import com.xlythe.math.Persist;
 import com.xlythe.math.Solver;
 
+import java.util.List;
+
 public class MainActivity extends WearableActivity {
 
     /**
@@ -34,10 +36,13 @@ public class MainActivity extends WearableActivity {
     private ViewSwitcher mDisplay;
     private BackspaceImageButton mDelete;
     private ViewPager mPager;
-    private Persist mPersist;
+    private CalculatorPageAdapter mPageAdapter;
+    private HistoryRepository mRepository;
+    private HistoryLoader mHistoryLoader;
     private History mHistory;
     private CalculatorExpressionTokenizer mTokenizer;
     private CalculatorExpressionEvaluator mEvaluator;
+    private RemoteEvaluator mRemoteEvaluator;
     private State mState;
 
     @Override
@@ -53,12 +58,13 @@ public class MainActivity extends WearableActivity {
         mTokenizer = new CalculatorExpressionTokenizer(this);
         mEvaluator = new CalculatorExpressionEvaluator(mTokenizer);
 
-        mPager = (ViewPager) findViewById(R.id.panelswitch);
-
-        mPersist = new Persist(this);
-        mPersist.load();
+        // Big factorials, powers and the like are sent to the phone, which is much faster.
+        // Swap in a LocalTransport to try this out without a phone.
+        mRemoteEvaluator = new RemoteEvaluator(new WearableTransport(this));
+        mRemoteEvaluator.connect();
+        mEvaluator.setRemoteEvaluator(mRemoteEvaluator);
 
-        mHistory = mPersist.getHistory();
+        mPager = (ViewPager) findViewById(R.id.panelswitch);
 
         mDisplay = (ViewSwitcher) findViewById(R.id.display);
         for (FormattedNumberEditText editText : getEditTexts()) {
@@ -130,9 +136,9 @@ public class MainActivity extends WearableActivity {
                 getActiveEditText().insert(entry.getResult());
             }
         };
-        final CalculatorPageAdapter adapter = new CalculatorPageAdapter(
-                this, mListener, historyItemCallback, mEvaluator.getSolver(), mHistory);
-        mPager.setAdapter(adapter);
+        mPageAdapter = new CalculatorPageAdapter(
+                this, mListener, historyItemCallback, mEvaluator.getSolver(), null);
+        mPager.setAdapter(mPageAdapter);
         mPager.setCurrentItem(1);
         mPager.addOnPageChangeListener(new ViewPager.OnPageChangeListener() {
             private int mActivePage = -1;
@@ -163,19 +169,50 @@ public class MainActivity extends WearableActivity {
             }
 
             private void setActivePage(int page) {
-                for (int i = 0; i < adapter.getCount(); i++) {
-                    adapter.setEnabled(adapter.getViewAt(i), page == -1 || i == page);
+                for (int i = 0; i < mPageAdapter.getCount(); i++) {
+                    mPageAdapter.setEnabled(mPageAdapter.getViewAt(i), page == -1 || i == page);
                 }
             }
         });
 
         setState(State.DELETE);
+
+        // Load the history off the main thread, so the keypad shows up right away
+        mHistoryLoader = new HistoryLoader(this, new HistoryLoader.Callback() {
+            @Override
+            public void onHistoryLoaded(HistoryRepository repository) {
+                mHistoryLoader = null;
+                mRepository = repository;
+                mHistory = mRepository.getHistory();
+                mPageAdapter.setHistory(mHistory);
+            }
+        });
+        mHistoryLoader.execute();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        mPersist.save();
+        saveHistory();
+    }
+
+    private void saveHistory() {
+        // Flash writes are slow and cost battery on a watch. The repository only writes if
+        // something changed, and then all at once.
+        if (mRepository != null) {
+            mRepository.flush();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mRemoteEvaluator.disconnect();
+        mPageAdapter.release();
+        if (mHistoryLoader != null) {
+            mHistoryLoader.cancel(false);
+            mHistoryLoader = null;
+        }
+        super.onDestroy();
     }
 
     private void onDelete() {
@@ -232,6 +269,9 @@ public class MainActivity extends WearableActivity {
 
     protected boolean saveHistory(String expr, String result) {
         if (mHistory == null) {
+            // Still loading. The answer belongs in the history all the same, and the repository
+            // loads on demand, so hand it over off the main thread.
+            saveHistoryInBackground(expr, result);
             return false;
         }
 
@@ -242,15 +282,38 @@ public class MainActivity extends WearableActivity {
             expr = EquationFormatter.appendParenthesis(expr);
             expr = Solver.clean(expr);
             expr = mTokenizer.getLocalizedExpression(expr);
-            mHistory.enter(expr, result);
+            mRepository.enter(expr, result);
             return true;
         }
         return false;
     }
 
+    private void saveHistoryInBackground(String expr, final String result) {
+        if (TextUtils.isEmpty(expr) || TextUtils.isEmpty(result) || Solver.equal(expr, result)) {
+            return;
+        }
+
+        final String formula = mTokenizer.getLocalizedExpression(
+                Solver.clean(EquationFormatter.appendParenthesis(expr)));
+        final HistoryRepository repository = HistoryRepository.getInstance(this);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<HistoryEntry> entries = repository.getEntries();
+                if (entries.isEmpty() || !entries.get(entries.size() - 1).getFormula().equals(formula)) {
+                    repository.enter(formula, result);
+                    repository.flush();
+                }
+            }
+        });
+    }
+
     @Override
     public void onEnterAmbient(Bundle ambientDetails) {
         super.onEnterAmbient(ambientDetails);
+        // The user has stopped typing. Write now, while we're awake anyway, instead of
+        // waking back up to do it later.
+        saveHistory();
         setEnabled(findViewById(android.R.id.content), false);
         Drawable background = findViewById(android.R.id.content).getRootView().getBackground();
         findViewById(R.id.display_background).setBackground(background);
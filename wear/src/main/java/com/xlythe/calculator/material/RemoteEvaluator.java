@@ -0,0 +1,166 @@
+package com.xlythe.calculator.material;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+/**
+ * Hands expressions that would be slow on the watch to an EvaluationTransport (normally the
+ * phone), and remembers the answers. If the other end doesn't answer in time, the caller is
+ * told to solve it locally instead.
+ */
+public class RemoteEvaluator {
+    // How long to wait for the phone before solving on the watch after all
+    private static final long TIMEOUT = 2000;
+    private static final int CACHE_SIZE = 32;
+
+    // Anything past these is considered too slow for the watch
+    private static final int MAX_FACTORIAL = 20;
+    private static final int MAX_EXPONENT_DIGITS = 3;
+    private static final int MAX_LENGTH = 48;
+
+    private final EvaluationTransport mTransport;
+    private final LruCache<String, String> mCache = new LruCache<>(CACHE_SIZE);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public RemoteEvaluator(EvaluationTransport transport) {
+        mTransport = transport;
+    }
+
+    public void connect() {
+        mTransport.connect();
+    }
+
+    public void disconnect() {
+        mTransport.disconnect();
+    }
+
+    /**
+     * Guesses whether the normalized expression is worth sending to the phone: big factorials,
+     * big powers, matrices and long expressions.
+     */
+    public static boolean isExpensive(String expr) {
+        if (expr.length() > MAX_LENGTH || expr.indexOf('[') != -1) {
+            return true;
+        }
+        for (int i = 0; i < expr.length(); i++) {
+            char c = expr.charAt(i);
+            if (c == '!' && factorialOperand(expr, i) > MAX_FACTORIAL) {
+                return true;
+            }
+            if (c == '^' && exponentDigits(expr, i + 1) > MAX_EXPONENT_DIGITS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long factorialOperand(String expr, int end) {
+        int start = end;
+        while (start > 0 && Character.isDigit(expr.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end) {
+            // eg. (2+3)!, which we can't size up without solving it
+            return 0;
+        }
+        if (end - start > 9) {
+            return Long.MAX_VALUE;
+        }
+        return Long.parseLong(expr.substring(start, end));
+    }
+
+    private static int exponentDigits(String expr, int start) {
+        int i = start;
+        while (i < expr.length() && Character.isDigit(expr.charAt(i))) {
+            i++;
+        }
+        return i - start;
+    }
+
+    /**
+     * Solves the normalized expression elsewhere. The callback is always called exactly once,
+     * on the main thread.
+     */
+    public void evaluate(final String expr, final Callback callback) {
+        String cached = mCache.get(expr);
+        if (cached != null) {
+            callback.onResult(cached);
+            return;
+        }
+
+        final Request request = new Request(callback);
+        mHandler.postDelayed(request, TIMEOUT);
+        mTransport.evaluate(expr, new EvaluationTransport.Callback() {
+            @Override
+            public void onResult(final String result) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCache.put(expr, result);
+                        if (request.finish()) {
+                            callback.onResult(result);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onError() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.finish()) {
+                            callback.onError();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onUnavailable() {
+                mHandler.post(request);
+            }
+        });
+    }
+
+    /**
+     * Makes sure only the first of the answer, the error and the timeout gets through.
+     * Running it means we've given up waiting.
+     */
+    private class Request implements Runnable {
+        private final Callback mCallback;
+        private boolean mFinished;
+
+        Request(Callback callback) {
+            mCallback = callback;
+        }
+
+        boolean finish() {
+            if (mFinished) {
+                return false;
+            }
+            mFinished = true;
+            mHandler.removeCallbacks(this);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            if (finish()) {
+                mCallback.onFallback();
+            }
+        }
+    }
+
+    public interface Callback {
+        void onResult(String result);
+
+        void onError();
+
+        /**
+         * The phone didn't answer, so the expression should be solved locally.
+         */
+        void onFallback();
+    }
+}
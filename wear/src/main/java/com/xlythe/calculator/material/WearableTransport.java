@@ -0,0 +1,149 @@
+package com.xlythe.calculator.material;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends expressions to the phone app over the Wearable MessageApi. Each request carries an id,
+ * which the phone sends back along with the answer.
+ *
+ * Requests look like "id\nexpression". Replies look like "id\n=result", or "id\n!" if the
+ * phone couldn't solve it.
+ */
+public class WearableTransport implements EvaluationTransport, MessageApi.MessageListener,
+        GoogleApiClient.ConnectionCallbacks {
+    private static final String TAG = WearableTransport.class.getSimpleName();
+
+    // Must match the phone's WearEvaluationService
+    static final String PATH_EVALUATE = "/calculator/evaluate";
+    static final String PATH_RESULT = "/calculator/result";
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final GoogleApiClient mClient;
+    private final AtomicLong mNextId = new AtomicLong();
+    private final Map<Long, Callback> mPending = new ConcurrentHashMap<>();
+
+    public WearableTransport(Context context) {
+        mClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .build();
+    }
+
+    @Override
+    public void connect() {
+        mClient.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        if (mClient.isConnected()) {
+            Wearable.MessageApi.removeListener(mClient, this);
+        }
+        mClient.disconnect();
+        for (Callback callback : mPending.values()) {
+            callback.onUnavailable();
+        }
+        mPending.clear();
+    }
+
+    @Override
+    public void onConnected(@Nullable Bundle bundle) {
+        Wearable.MessageApi.addListener(mClient, this);
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {}
+
+    @Override
+    public void evaluate(final String expr, final Callback callback) {
+        if (!mClient.isConnected()) {
+            callback.onUnavailable();
+            return;
+        }
+
+        final long id = mNextId.incrementAndGet();
+        mPending.put(id, callback);
+        Wearable.NodeApi.getConnectedNodes(mClient).setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+            @Override
+            public void onResult(@NonNull NodeApi.GetConnectedNodesResult result) {
+                Node phone = null;
+                for (Node node : result.getNodes()) {
+                    if (phone == null || node.isNearby()) {
+                        phone = node;
+                    }
+                }
+                if (phone == null) {
+                    fail(id);
+                    return;
+                }
+
+                byte[] payload = (id + "\n" + expr).getBytes(UTF_8);
+                Wearable.MessageApi.sendMessage(mClient, phone.getId(), PATH_EVALUATE, payload)
+                        .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                            @Override
+                            public void onResult(@NonNull MessageApi.SendMessageResult result) {
+                                if (!result.getStatus().isSuccess()) {
+                                    fail(id);
+                                }
+                            }
+                        });
+            }
+        });
+    }
+
+    private void fail(long id) {
+        Callback callback = mPending.remove(id);
+        if (callback != null) {
+            callback.onUnavailable();
+        }
+    }
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (!PATH_RESULT.equals(messageEvent.getPath())) {
+            return;
+        }
+
+        String message = new String(messageEvent.getData(), UTF_8);
+        int newline = message.indexOf('\n');
+        if (newline == -1 || newline + 1 >= message.length()) {
+            Log.w(TAG, "Ignoring malformed reply " + message);
+            return;
+        }
+
+        Callback callback;
+        try {
+            callback = mPending.remove(Long.parseLong(message.substring(0, newline)));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignoring malformed reply " + message);
+            return;
+        }
+        if (callback == null) {
+            // We already gave up on this one
+            return;
+        }
+
+        if (message.charAt(newline + 1) == '=') {
+            callback.onResult(message.substring(newline + 2));
+        } else {
+            callback.onError();
+        }
+    }
+}
@@ -19,10 +19,13 @@ package com.xlythe.calculator.material.view;
 import android.content.Context;
 import android.text.Editable;
 import android.text.Html;
+import android.text.TextUtils;
 import android.text.TextWatcher;
+import android.text.style.CharacterStyle;
 import android.util.AttributeSet;
 
 import com.xlythe.calculator.material.R;
+import com.xlythe.math.Base;
 import com.xlythe.math.BaseModule;
 import com.xlythe.math.Constants;
 import com.xlythe.math.EquationFormatter;
@@ -47,6 +50,11 @@ public class FormattedNumberEditText extends NumberEditText {
     private boolean mTextWatchersEnabled = true;
     private EquationFormatter mEquationFormatter;
     private Solver mSolver;
+    // The unformatted copy of the current text. Cleared whenever the text changes.
+    private String mCleanText;
+    // The range of the last edit, so that only the number it touched has to be reformatted
+    private int mEditStart;
+    private int mEditEnd;
     private final TextWatcher mTextWatcher = new TextWatcher() {
         @Override
         public void beforeTextChanged(CharSequence s, int start, int count, int after) {
@@ -54,13 +62,18 @@ public class FormattedNumberEditText extends NumberEditText {
 
         @Override
         public void onTextChanged(CharSequence s, int start, int before, int count) {
+            mCleanText = null;
+            mEditStart = start;
+            mEditEnd = start + count;
         }
 
         @Override
         public void afterTextChanged(Editable s) {
             if (!mTextWatchersEnabled || mSolver == null || getSelectionStart() == -1) return;
             mTextWatchersEnabled = false;
-            onFormat(s);
+            if (!formatIncrementally(s)) {
+                onFormat(s);
+            }
             mTextWatchersEnabled = true;
         }
     };
@@ -113,20 +126,182 @@ public class FormattedNumberEditText extends NumberEditText {
     }
 
     protected void onFormat(Editable s) {
-        String text = removeFormatting(s.toString());
-
         // Get the selection handle, since we're setting text and that'll overwrite it
-        MutableInteger selectionHandle = new MutableInteger(getSelectionStart());
-
-        // Adjust the handle by removing any comas or spacing to the left
-        String cs = s.subSequence(0, selectionHandle.intValue()).toString();
-        selectionHandle.subtract(TextUtil.countOccurrences(cs, mSolver.getBaseModule().getSeparator()));
+        final int selectionStart = getSelectionStart();
+        MutableInteger selectionHandle = new MutableInteger(selectionStart);
+
+        // Strip the formatting in a single pass, moving the handle left for every coma or
+        // space we remove before it (or to the marker left behind by insert)
+        final char separator = mSolver.getBaseModule().getSeparator();
+        final StringBuilder text = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == BaseModule.SELECTION_HANDLE) {
+                selectionHandle.set(text.length());
+            } else if (c == separator) {
+                if (i < selectionStart) {
+                    selectionHandle.subtract(1);
+                }
+            } else if (c == Constants.POWER_PLACEHOLDER) {
+                text.append(Constants.POWER);
+            } else {
+                text.append(c);
+            }
+        }
 
         // Update the text with formatted (comas, etc) text
-        setText(Html.fromHtml(formatText(text, selectionHandle)));
+        setText(toSpanned(formatText(text.toString(), selectionHandle)));
         setSelection(selectionHandle.intValue());
     }
 
+    /**
+     * Regroups only the number that was just edited, directly in the Editable. Returns false
+     * if the edit may have affected more than that number (operators, exponents, spans, or a
+     * base other than decimal), in which case the whole equation goes through onFormat.
+     */
+    protected boolean formatIncrementally(Editable s) {
+        final BaseModule baseModule = mSolver.getBaseModule();
+        if (baseModule.getBase() != Base.DECIMAL || mEditStart > mEditEnd || mEditEnd > s.length()) {
+            return false;
+        }
+
+        final char separator = baseModule.getSeparator();
+        for (int i = mEditStart; i < mEditEnd; i++) {
+            if (!isNumber(s.charAt(i), separator)) {
+                return false;
+            }
+        }
+
+        // Grow the edit out to the whole number
+        int start = mEditStart;
+        while (start > 0 && isNumber(s.charAt(start - 1), separator)) {
+            --start;
+        }
+        int end = mEditEnd;
+        while (end < s.length() && isNumber(s.charAt(end), separator)) {
+            ++end;
+        }
+        if (start == end
+                || (start > 0 && !isDelimiter(s.charAt(start - 1)))
+                || (end < s.length() && !isDelimiter(s.charAt(end)))) {
+            return false;
+        }
+
+        // Exponents and matrices are drawn with spans, and those need the full treatment
+        if (s.getSpans(Math.max(0, start - 1), Math.min(s.length(), end + 1), CharacterStyle.class).length > 0) {
+            return false;
+        }
+
+        // Count the digits before the cursor, since the separators around it are about to move
+        final int selectionHandle = getSelectionStart();
+        int digitsBeforeHandle = 0;
+        final StringBuilder number = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c != separator) {
+                number.append(c);
+                if (i < selectionHandle) {
+                    ++digitsBeforeHandle;
+                }
+            }
+        }
+
+        String grouped = mEquationFormatter.addComas(mSolver, number.toString());
+        if (!TextUtils.equals(grouped, s.subSequence(start, end))) {
+            s.replace(start, end, grouped);
+        }
+
+        if (selectionHandle > end) {
+            setSelection(selectionHandle + grouped.length() - (end - start));
+        } else if (selectionHandle >= start) {
+            int handle = start;
+            while (digitsBeforeHandle > 0 && handle < start + grouped.length()) {
+                if (grouped.charAt(handle - start) != separator) {
+                    --digitsBeforeHandle;
+                }
+                ++handle;
+            }
+            setSelection(handle);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if replacing [start, end) with delta only changes digits, and can be done
+     * in place without rebuilding the rest of the equation.
+     */
+    private boolean canEditInPlace(int start, int end, String delta) {
+        if (mSolver == null || mSolver.getBaseModule().getBase() != Base.DECIMAL) {
+            return false;
+        }
+
+        final Editable text = getText();
+        for (int i = start; i < end; i++) {
+            if (!isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        for (int i = 0; i < delta.length(); i++) {
+            if (!isDigit(delta.charAt(i))) {
+                return false;
+            }
+        }
+        return text.getSpans(Math.max(0, start - 1), Math.min(text.length(), end + 1), CharacterStyle.class).length == 0;
+    }
+
+    /**
+     * Edits the Editable directly, instead of calling setText, so the IME isn't restarted and
+     * only the number being edited is reformatted.
+     */
+    private void replaceText(int start, int end, String delta) {
+        notifyBeforeTextChanged();
+        getText().replace(start, end, delta);
+        invalidateTextSize();
+        notifyAfterTextChanged();
+    }
+
+    private void notifyBeforeTextChanged() {
+        if (mTextWatchersEnabled) {
+            for (TextWatcher textWatcher : mTextWatchers) {
+                textWatcher.beforeTextChanged(getCleanText(), 0, 0, 0);
+            }
+        }
+    }
+
+    private void notifyAfterTextChanged() {
+        if (mTextWatchersEnabled) {
+            for (TextWatcher textWatcher : mTextWatchers) {
+                textWatcher.afterTextChanged(getEditableFactory().newEditable(getCleanText()));
+                textWatcher.onTextChanged(getCleanText(), 0, 0, 0);
+            }
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return Character.isDigit(c) || c == Constants.DECIMAL_POINT;
+    }
+
+    private static boolean isNumber(char c, char separator) {
+        return isDigit(c) || c == separator;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return !Character.isLetter(c)
+                && c != Constants.POWER
+                && c != Constants.POWER_PLACEHOLDER
+                && c != BaseModule.SELECTION_HANDLE;
+    }
+
+    /**
+     * Html.fromHtml is only needed when the formatter added markup (eg. for exponents).
+     */
+    private static CharSequence toSpanned(String html) {
+        if (html.indexOf('<') == -1 && html.indexOf('&') == -1) {
+            return html;
+        }
+        return Html.fromHtml(html);
+    }
+
     @Override
     public void addTextChangedListener(TextWatcher watcher) {
         if (watcher.equals(mTextWatcher)) {
@@ -138,26 +313,20 @@ public class FormattedNumberEditText extends NumberEditText {
 
     @Override
     public void setText(CharSequence text, BufferType type) {
-        if (mTextWatchersEnabled) {
-            for (TextWatcher textWatcher : mTextWatchers) {
-                textWatcher.beforeTextChanged(getCleanText(), 0, 0, 0);
-            }
-        }
+        notifyBeforeTextChanged();
         super.setText(text, type);
         if (text != null && !mIsInserting) {
             setSelection(getText().length());
         }
         invalidateTextSize();
-        if (mTextWatchersEnabled) {
-            for (TextWatcher textWatcher : mTextWatchers) {
-                textWatcher.afterTextChanged(getEditableFactory().newEditable(getCleanText()));
-                textWatcher.onTextChanged(getCleanText(), 0, 0, 0);
-            }
-        }
+        notifyAfterTextChanged();
     }
 
     public String getCleanText() {
-        return removeFormatting(getText().toString());
+        if (mCleanText == null) {
+            mCleanText = removeFormatting(getText().toString());
+        }
+        return mCleanText;
     }
 
     public void insert(String delta) {
@@ -165,6 +334,11 @@ public class FormattedNumberEditText extends NumberEditText {
         int selectionHandle = getSelectionStart();
         String textBeforeInsertionHandle = text.substring(0, selectionHandle);
         String textAfterInsertionHandle = text.substring(selectionHandle, text.length());
+        if (canEditInPlace(selectionHandle, selectionHandle, delta)) {
+            replaceText(selectionHandle, selectionHandle, delta);
+            return;
+        }
+
         mIsInserting = true;
         setText(textBeforeInsertionHandle + delta + BaseModule.SELECTION_HANDLE + textAfterInsertionHandle);
         mIsInserting = false;
@@ -204,6 +378,11 @@ public class FormattedNumberEditText extends NumberEditText {
             }
         }
 
+        if (selectionHandle != 0 && canEditInPlace(selectionHandle - 1, selectionHandle, "")) {
+            replaceText(selectionHandle - 1, selectionHandle, "");
+            return;
+        }
+
         // Override NumberEditText's method -- because commas might disappear, it complicates things
         if (selectionHandle != 0) {
             setText(textBeforeInsertionHandle.substring(0, textBeforeInsertionHandle.length() - 1)
@@ -250,13 +429,10 @@ public class FormattedNumberEditText extends NumberEditText {
             // Add grouping, and then split on the selection handle
             // which is saved as a unique char
             String grouped = mEquationFormatter.addComas(mSolver, input, selectionHandle.intValue());
-            if (grouped.contains(String.valueOf(BaseModule.SELECTION_HANDLE))) {
-                String[] temp = grouped.split(String.valueOf(BaseModule.SELECTION_HANDLE));
-                selectionHandle.set(temp[0].length());
-                input = "";
-                for (String s : temp) {
-                    input += s;
-                }
+            int handle = grouped.indexOf(BaseModule.SELECTION_HANDLE);
+            if (handle >= 0) {
+                selectionHandle.set(handle);
+                input = grouped.substring(0, handle) + grouped.substring(handle + 1);
             } else {
                 input = grouped;
             }
@@ -271,6 +447,7 @@ public class FormattedNumberEditText extends NumberEditText {
 
     public void setSolver(Solver solver) {
         mSolver = solver;
+        mCleanText = null;
     }
 
     public void setDebugEnabled(boolean enabled) {